@@ -0,0 +1,120 @@
+package edu.marist.muster.bench;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.marist.muster.Preferences;
+import edu.marist.muster.analytics.AttendanceAnalytics;
+import edu.marist.muster.analytics.StudentStats;
+
+/**
+ * Attendance numbers over a grid of 1k to 50k students by 60 sessions,
+ * each student at about 60% of them.
+ *
+ * <li>{@code load}: the grid into the arrays, every student worked out.
+ * <li>{@code marked}: one more sign in on the latest session.
+ * <li>{@code students}: everyone's numbers.
+ * <li>{@code headcounts}: every session's headcount.
+ *
+ * @author Tom Magnusson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalyticsBenchmark {
+
+	@Param({ "1000", "10000", "50000" })
+	public int rosterSize;
+
+	@Param({ "60" })
+	public int sessions;
+
+	private List<List<Object>> grid;
+
+	private AttendanceAnalytics analytics;
+
+	private LocalDate latest;
+
+	private String email;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		DateTimeFormatter dates = DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT);
+		DateTimeFormatter times = DateTimeFormatter.ofPattern(Preferences.TIME_FORMAT);
+		LocalDate first = LocalDate.of(2017, 1, 9);
+		latest = first.plusDays(sessions - 1);
+		Random random = new Random(7);
+
+		grid = new ArrayList<>(rosterSize + 1);
+		List<Object> header = new ArrayList<>(sessions + 1);
+		header.add("Email");
+		for (int j = 0; j < sessions; j++) {
+			header.add(first.plusDays(j).format(dates));
+		}
+		grid.add(header);
+		for (int i = 0; i < rosterSize; i++) {
+			List<Object> row = new ArrayList<>(sessions + 1);
+			row.add(Rosters.email(i));
+			for (int j = 0; j < sessions; j++) {
+				row.add(random.nextInt(10) < 6 ? LocalTime.of(9, random.nextInt(60)).format(times) : "");
+			}
+			grid.add(row);
+		}
+
+		analytics = new AttendanceAnalytics();
+		analytics.load(grid);
+	}
+
+	@Setup(Level.Invocation)
+	public void pickEmail() {
+		email = Rosters.email(ThreadLocalRandom.current().nextInt(rosterSize));
+	}
+
+	@Benchmark
+	public AttendanceAnalytics load() {
+		AttendanceAnalytics loaded = new AttendanceAnalytics();
+		loaded.load(grid);
+		return loaded;
+	}
+
+	@Benchmark
+	public StudentStats marked() {
+		analytics.marked(email, LocalDateTime.of(latest, LocalTime.of(9, 30)));
+		return analytics.student(email);
+	}
+
+	@Benchmark
+	public List<StudentStats> students() {
+		return analytics.students();
+	}
+
+	@Benchmark
+	public Map<LocalDate, Integer> headcounts() {
+		return analytics.headcounts();
+	}
+}
@@ -0,0 +1,73 @@
+package edu.marist.muster.bench;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.marist.muster.Preferences;
+import edu.marist.muster.sheets.A1Notation;
+
+/**
+ * The string work every sign in does: naming the cell and formatting the
+ * date and time. No backend at all.
+ *
+ * @author Tom Magnusson
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormattingBenchmark {
+
+	@Param({ "3", "30", "800" })
+	public int column;
+
+	private final LocalDateTime time = LocalDateTime.now();
+
+	private final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT);
+
+	private final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern(Preferences.TIME_FORMAT);
+
+	@Benchmark
+	public String columnLetters() {
+		return A1Notation.columnToLetters(column);
+	}
+
+	@Benchmark
+	public String cell() {
+		return A1Notation.cell(column, 250);
+	}
+
+	@Benchmark
+	public int parseCell() {
+		return A1Notation.columnOf("AFT250");
+	}
+
+	/**
+	 * Builds the formatters every time, like {@code mark()} does.
+	 */
+	@Benchmark
+	public String formatNewFormatters() {
+		return time.format(DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT))
+				+ time.format(DateTimeFormatter.ofPattern(Preferences.TIME_FORMAT));
+	}
+
+	@Benchmark
+	public String formatSharedFormatters() {
+		return time.format(dateFormat) + time.format(timeFormat);
+	}
+}
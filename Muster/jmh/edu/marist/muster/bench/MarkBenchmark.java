@@ -0,0 +1,94 @@
+package edu.marist.muster.bench;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.marist.muster.sheets.InMemorySheetsBackend;
+import edu.marist.muster.sheets.MarkResult;
+import edu.marist.muster.sheets.SheetsHelper;
+
+/**
+ * {@code SheetsHelper.mark()} against an in memory sheet.
+ *
+ * <li>{@code coldMark}: a new helper every time, so it pays for loading the
+ * 		header and the roster first (like the first sign in after startup).
+ * <li>{@code warmMark}: the same helper every time, the steady state.
+ *
+ * <p>{@code latencyMillis} is added to every backend call, 0 shows the
+ * client side cost alone.
+ *
+ * @author Tom Magnusson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkBenchmark {
+
+	@Param({ "0", "5" })
+	public long latencyMillis;
+
+	@Param({ "100", "5000" })
+	public int rosterSize;
+
+	private InMemorySheetsBackend backend;
+
+	private SheetsHelper warm;
+
+	private SheetsHelper cold;
+
+	private LocalDateTime time;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Rosters.quietPreferences();
+		backend = new InMemorySheetsBackend();
+		Rosters.fill(backend, rosterSize);
+		time = LocalDateTime.now();
+
+		warm = new SheetsHelper(backend);
+		warm.mark(Rosters.email(0), time);
+		backend.setLatency(latencyMillis, latencyMillis);
+	}
+
+	@Setup(Level.Invocation)
+	public void newHelper() {
+		cold = new SheetsHelper(backend);
+	}
+
+	@Benchmark
+	public MarkResult coldMark() {
+		return cold.mark(nextEmail(), time);
+	}
+
+	@Benchmark
+	public MarkResult warmMark() {
+		return warm.mark(nextEmail(), time);
+	}
+
+	/**
+	 * Walks the roster so the same cell isn't written every time.
+	 */
+	private String nextEmail() {
+		next = (next + 1) % rosterSize;
+		return Rosters.email(next);
+	}
+}
@@ -0,0 +1,111 @@
+package edu.marist.muster.bench;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.marist.muster.sheets.InMemorySheetsBackend;
+import edu.marist.muster.sheets.SheetModel;
+import edu.marist.muster.sheets.SheetsVector;
+
+/**
+ * Finding an email in the roster, from 100 to 50k students.
+ *
+ * <li>{@code scanList}: {@code indexOf} over the whole column, the way the
+ * 		old {@code getAllEmails()} lookup worked.
+ * <li>{@code modelLookup}: the {@code SheetModel} map.
+ * <li>{@code loadColumn}: reading the whole column from the backend, in pages.
+ * <li>{@code complete}: the type-ahead, emails starting with the first few letters.
+ * <li>{@code nearest}: the typo check, emails within two edits of a mistyped one.
+ *
+ * @author Tom Magnusson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RosterLookupBenchmark {
+
+	@Param({ "100", "1000", "10000", "50000" })
+	public int rosterSize;
+
+	@Param({ "0" })
+	public long latencyMillis;
+
+	private InMemorySheetsBackend backend;
+
+	private List<String> roster;
+
+	private SheetModel model;
+
+	private String email;
+
+	/**
+	 * {@code email} with two letters swapped, "frist.last7".
+	 */
+	private String typo;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		backend = new InMemorySheetsBackend();
+		Rosters.fill(backend, rosterSize);
+		backend.setLatency(latencyMillis, latencyMillis);
+
+		roster = column().values();
+		model = new SheetModel();
+		model.load(true, roster, Collections.singletonList("Email"));
+	}
+
+	@Setup(Level.Invocation)
+	public void pickEmail() {
+		email = Rosters.email(ThreadLocalRandom.current().nextInt(rosterSize));
+		typo = email.charAt(0) + email.substring(2, 3) + email.charAt(1) + email.substring(3);
+	}
+
+	@Benchmark
+	public int scanList() {
+		return roster.indexOf(email);
+	}
+
+	@Benchmark
+	public int modelLookup() {
+		return model.rowForEmail(email);
+	}
+
+	@Benchmark
+	public List<String> complete() {
+		return model.roster().complete(email.substring(0, email.length() - 1), 5);
+	}
+
+	@Benchmark
+	public List<String> nearest() {
+		return model.roster().nearest(typo, 2, 5);
+	}
+
+	@Benchmark
+	public List<String> loadColumn() throws IOException {
+		return column().values();
+	}
+
+	private SheetsVector<String> column() {
+		return SheetsVector.column(backend, Rosters.SPREADSHEET_ID, 0, 2, (o) -> (String) o);
+	}
+}
@@ -0,0 +1,64 @@
+package edu.marist.muster.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.marist.muster.Preferences;
+import edu.marist.muster.sheets.DuplicateSignIn;
+import edu.marist.muster.sheets.InMemorySheetsBackend;
+import edu.marist.muster.sheets.ValueInputOption;
+
+/**
+ * Fake rosters for the benchmarks, and the {@code Preferences} they run with.
+ *
+ * @author Tom Magnusson
+ *
+ */
+final class Rosters {
+
+	static final String SPREADSHEET_ID = "benchmark";
+
+	/// Not meant to be instantiated
+	private Rosters() {}
+
+	/**
+	 * Synchronous writes, no roster sync thread, no journal, no snapshots, no quota, so a
+	 * benchmark only measures what it calls. Repeat sign ins are written
+	 * ({@code KEEP_LAST}), a benchmark marking the same emails over and over
+	 * would otherwise only measure the "already here" answer after the first pass.
+	 */
+	static void quietPreferences() {
+		Preferences.setRequestsPer100Seconds(0);
+		Preferences.setSheetID(SPREADSHEET_ID);
+		Preferences.setWriteBehind(false);
+		Preferences.setRosterSyncMillis(0);
+		Preferences.setJournaling(false);
+		Preferences.setSnapshotting(false);
+		Preferences.setDuplicateSignIn(DuplicateSignIn.KEEP_LAST);
+	}
+
+	/**
+	 * @param i
+	 * @return the i-th fake email, e.g. "first.last7"
+	 */
+	static String email(int i) {
+		return "first.last" + i;
+	}
+
+	/**
+	 * Writes the "Email" header and {@code size} emails down column A.
+	 * @param backend
+	 * @param size
+	 * @throws IOException
+	 */
+	static void fill(InMemorySheetsBackend backend, int size) throws IOException {
+		List<List<Object>> column = new ArrayList<>(size + 1);
+		column.add(Collections.<Object>singletonList("Email"));
+		for (int i = 0; i < size; i++) {
+			column.add(Collections.<Object>singletonList(email(i)));
+		}
+		backend.update(SPREADSHEET_ID, "A1", column, ValueInputOption.RAW);
+	}
+}
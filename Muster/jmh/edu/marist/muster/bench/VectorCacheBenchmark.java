@@ -0,0 +1,88 @@
+package edu.marist.muster.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.marist.muster.sheets.InMemorySheetsBackend;
+import edu.marist.muster.sheets.SheetsVector;
+
+/**
+ * The email column of a {@code SheetsVector} read from its cache and
+ * from the backend.
+ *
+ * <li>{@code cachedValues}: {@code values()}, always cached after the
+ * 		first read (what every sign in's model load costs).
+ * <li>{@code syncTop}: {@code sync(5)}, the first few cells and anything
+ * 		after the cached ones in one {@code batchGet}.
+ * <li>{@code syncAll}: {@code sync()}, the whole column read and compared
+ * 		(what the roster sync costs).
+ * <li>{@code refresh}: the cache thrown out and the column read again.
+ *
+ * <p>{@code latencyMillis} is added to every backend call, 0 shows the
+ * client side cost alone.
+ *
+ * @author Tom Magnusson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorCacheBenchmark {
+
+	@Param({ "0", "5" })
+	public long latencyMillis;
+
+	@Param({ "1000", "10000" })
+	public int rosterSize;
+
+	private SheetsVector<String> emails;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Rosters.quietPreferences();
+		InMemorySheetsBackend backend = new InMemorySheetsBackend();
+		Rosters.fill(backend, rosterSize);
+		backend.setLatency(latencyMillis, latencyMillis);
+
+		emails = SheetsVector.column(backend, Rosters.SPREADSHEET_ID, 0, 2, (o) -> (String) o);
+		emails.values();
+	}
+
+	@Benchmark
+	public List<String> cachedValues() throws IOException {
+		return emails.values();
+	}
+
+	@Benchmark
+	public int syncTop() throws IOException {
+		return emails.sync(5);
+	}
+
+	@Benchmark
+	public int syncAll() throws IOException {
+		return emails.sync();
+	}
+
+	@Benchmark
+	public List<String> refresh() throws IOException {
+		emails.refresh();
+		return emails.values();
+	}
+}
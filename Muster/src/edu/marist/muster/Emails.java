@@ -0,0 +1,32 @@
+package edu.marist.muster;
+
+import java.util.regex.Pattern;
+
+/**
+ * What counts as a Marist email, shared by the kiosk and {@code Import} so
+ * a sign in is judged the same however it gets to the sheet.
+ * 
+ * @author Tom Magnusson
+ *
+ */
+public final class Emails {
+
+	/// "stringanylength.stringanylength1" where 1 can be any number
+	private static final Pattern MARIST = Pattern.compile("^[a-zA-Z]+\\.[a-zA-Z]+[0-9]+$");
+
+	/// Not meant to be instantiated
+	private Emails() {}
+
+	/**
+	 * Validates a Marist email:<br>
+	 * <br>
+	 * 
+	 * {@code Firstname.Lastname#}
+	 * 
+	 * @param email
+	 * @return {@code true} if it's formatted like one
+	 */
+	public static boolean isValid(String email) {
+		return MARIST.matcher(email).find();
+	}
+}
@@ -0,0 +1,170 @@
+package edu.marist.muster;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.marist.muster.journal.SignIn;
+import edu.marist.muster.sheets.SheetsHelper;
+
+/**
+ * <p>Loads sign ins taken somewhere else (on paper, or by a card reader
+ * that logs to a file) into the sheet, without the UI:
+ * 
+ * <pre>./gradlew importSignIns -Psheet=&lt;sheet url or id&gt; -Pcsv=&lt;file&gt;</pre>
+ * 
+ * 	<li>One {@code email[,timestamp]} record per line, the timestamp either
+ * 		ISO ({@code 2017-03-17T09:30:00}, or with a space) or the way the sheet
+ * 		writes it ({@code 3/17/17 09:30:00 AM}). No timestamp means now.
+ * 	<li>Emails are checked like the kiosk checks them ({@code Emails}),
+ * 		"@marist.edu" on the end is fine. Bad lines are printed and skipped.
+ * 	<li>Blank lines, {@code #} comments and an "email" header line are skipped.
+ * 	<li>The file is read a line at a time and everything goes to one
+ * 		{@code SheetsHelper.markAll()}, which sorts out repeats across the
+ * 		whole file and writes 10k records in a handful of calls.
+ * 
+ * <p>Never starts JavaFX.
+ * 
+ * @author Tom Magnusson
+ *
+ */
+public final class Import {
+
+	/**
+	 * The id out of a sheet's url, see {@code Preferences.getSheetID()}.
+	 */
+	private static final Pattern SHEET_URL = Pattern.compile("/spreadsheets/d/([A-Za-z0-9_-]+)");
+
+	private static final String DOMAIN = "@marist.edu";
+
+	private static final DateTimeFormatter SHEET_TIME = DateTimeFormatter
+			.ofPattern(Preferences.DATE_FORMAT + " " + Preferences.TIME_FORMAT);
+
+	/// Not meant to be instantiated
+	private Import() {}
+
+	public static void main(String[] args) {
+		if (args.length != 2 || args[0].isEmpty() || args[1].isEmpty()) {
+			System.err.println("Usage: Import <sheet url or id> <file.csv>");
+			System.exit(2);
+		}
+		Preferences.setSheetID(sheetId(args[0]));
+		// nothing else is signing in, no point syncing or holding writes back
+		Preferences.setRosterSyncMillis(0);
+		Preferences.setWriteBehind(false);
+
+		long start = System.nanoTime();
+		int[] counts;
+		try (BufferedReader in = Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+			counts = importSignIns(new SheetsHelper(), in, Preferences.getSheetID());
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Import failed, some of it may be on the sheet, importing again is safe.");
+			System.exit(1);
+			return;
+		}
+		System.out.printf("Read %d records, skipped %d bad ones, wrote %d times in %.1f s.%n",
+				counts[0], counts[1], counts[2], (System.nanoTime() - start) / 1e9);
+		// the helper's threads are daemons, but its shutdown hooks should run now
+		System.exit(0);
+	}
+
+	/**
+	 * Reads the records and marks them all at once.
+	 * @param helper
+	 * @param in
+	 * 		{@code email[,timestamp]} lines
+	 * @param spreadsheetId
+	 * @return records read, records skipped, cells written
+	 * @throws IOException
+	 * 		reading, or writing failed
+	 */
+	public static int[] importSignIns(SheetsHelper helper, Reader in, String spreadsheetId) throws IOException {
+		BufferedReader lines = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		LocalDateTime now = LocalDateTime.now();
+		List<SignIn> signIns = new ArrayList<>();
+		int read = 0;
+		int skipped = 0;
+
+		String line;
+		for (int number = 1; (line = lines.readLine()) != null; number++) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#") || (number == 1 && field(line, 0).equalsIgnoreCase("email")))
+				continue;
+			read++;
+			SignIn signIn = parse(line, now, spreadsheetId);
+			if (signIn == null) {
+				System.err.println("Line " + number + ": skipped \"" + line + "\"");
+				skipped++;
+				continue;
+			}
+			signIns.add(signIn);
+		}
+		return new int[] { read, skipped, helper.markAll(signIns) };
+	}
+
+	/**
+	 * @return the sign in on the line, {@code null} if the email or
+	 * 		timestamp is no good
+	 */
+	private static SignIn parse(String line, LocalDateTime now, String spreadsheetId) {
+		String email = field(line, 0);
+		if (email.toLowerCase().endsWith(DOMAIN))
+			email = email.substring(0, email.length() - DOMAIN.length());
+		if (!Emails.isValid(email))
+			return null;
+
+		String timestamp = field(line, 1);
+		if (timestamp.isEmpty())
+			return new SignIn(spreadsheetId, email, now);
+		try {
+			return new SignIn(spreadsheetId, email, LocalDateTime.parse(timestamp.replace(' ', 'T')));
+		} catch (DateTimeParseException e) {
+			// not ISO, try the way the sheet writes it
+		}
+		try {
+			return new SignIn(spreadsheetId, email, LocalDateTime.parse(timestamp, SHEET_TIME));
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param line
+	 * @param index
+	 * 		0 for the email, 1 for the timestamp
+	 * @return the field trimmed and unquoted, "" if it isn't there
+	 */
+	private static String field(String line, int index) {
+		int comma = line.indexOf(',');
+		String field;
+		if (index == 0)
+			field = comma < 0 ? line : line.substring(0, comma);
+		else
+			field = comma < 0 ? "" : line.substring(comma + 1);
+		field = field.trim();
+		if (field.length() >= 2 && field.startsWith("\"") && field.endsWith("\""))
+			field = field.substring(1, field.length() - 1).trim();
+		return field;
+	}
+
+	/**
+	 * @param sheet
+	 * 		the sheet's url, or just its id
+	 * @return the id
+	 */
+	private static String sheetId(String sheet) {
+		Matcher matcher = SHEET_URL.matcher(sheet);
+		return matcher.find() ? matcher.group(1) : sheet;
+	}
+}
@@ -1,5 +1,12 @@
 package edu.marist.muster;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import edu.marist.muster.sheets.DuplicateSignIn;
+import edu.marist.muster.sheets.TabSharding;
 import javafx.scene.paint.Paint;
 import javafx.util.Duration;
 
@@ -22,9 +29,97 @@ public class Preferences {
 	
 	private static String sheetID;
 	
+	/// Queue writes and send them together, see {@code BatchWriter}
+	private static boolean writeBehind = false;
+	
+	private static long flushIntervalMillis = 2000;
+	
+	private static int maxBatchSize = 50;
+	
+	/// Write every sign in to the local journal before confirming it
+	private static boolean journaling = true;
+	
+	/// Tries at one journaled sign in before it's set aside, see {@code JournalReplayer}
+	private static int journalMaxAttempts = 20;
+	
+	/// Save what's known about the sheet between runs, see {@code SheetSnapshot}
+	private static boolean snapshotting = true;
+	
+	/// Someone signing in twice on one day, see {@code DuplicateSignIn}
+	private static DuplicateSignIn duplicateSignIn = DuplicateSignIn.KEEP_FIRST;
+	
+	/// A tab per month or term instead of one grid forever, see {@code TabSharding}.
+	/// Set on the command line with -Dmuster.tabs=MONTH (or TERM)
+	private static TabSharding tabSharding = tabShardingProperty();
+	
+	/// Sign ins written at the same time, see {@code SignInPipeline}
+	private static int signInWorkers = 4;
+	
+	private static int signInQueueCapacity = 100;
+	
+	/// How often to pick up emails added to the sheet by someone else, 0 to never
+	private static long rosterSyncMillis = 60000;
+	
+	/// The Sheets API quota (per user), 0 for no limit, see {@code ThrottlingSheetsBackend}
+	private static int requestsPer100Seconds = 100;
+	
+	private static int requestBurst = 10;
+	
+	/// Retries of a call that got a 429 or 5xx, with backoff in between
+	private static int maxRetries = 5;
+	
+	private static long initialBackoffMillis = 1000;
+	
+	private static long maxBackoffMillis = 32000;
+	
+	/// HTTP timeouts for calls to Google, see {@code SheetsTransport}
+	private static int connectTimeoutMillis = 10000;
+	
+	private static int readTimeoutMillis = 20000;
+	
+	/// Refresh the Google sign in this long before it runs out, see {@code TokenRefresher}
+	private static long tokenRefreshMarginMillis = 300000;
+	
+	/// Where the Sheets API is, Google's if not set. -Dmuster.sheets.rootUrl=http://localhost:8643/
+	/// for a {@code SheetsStandInServer}
+	private static String sheetsRootUrl = System.getProperty("muster.sheets.rootUrl");
+	
+	/// Several kiosks, one writer, see {@code AggregatorServer}. Set on the command line, e.g.
+	/// -Dmuster.aggregator.serve=true on the kiosk that writes, and
+	/// -Dmuster.aggregator.url=http://that-kiosk:8642 on the others
+	private static boolean aggregator = Boolean.getBoolean("muster.aggregator.serve");
+	
+	private static int aggregatorPort = Integer.getInteger("muster.aggregator.port", 8642);
+	
+	private static String aggregatorUrl = System.getProperty("muster.aggregator.url");
+	
+	/// One row per sign in on a log tab instead of a time in the grid, see {@code EventLog}.
+	/// Set on the command line with -Dmuster.eventLog=true
+	private static boolean eventLog = Boolean.getBoolean("muster.eventLog");
+	
+	/// How often the grid is rebuilt from the log, 0 to never
+	private static long attendanceRebuildMillis = 600000;
+	
+	/// Goes in the log's kiosk column, -Dmuster.kiosk=... (the host name if not set)
+	private static String kioskName = System.getProperty("muster.kiosk");
+	
 	/// Not meant to be instantiated
 	private Preferences() {}
 	
+	/**
+	 * @return -Dmuster.tabs, {@code NONE} if it isn't set or isn't one of
+	 * 		them (a typo shouldn't keep the kiosk from starting)
+	 */
+	private static TabSharding tabShardingProperty() {
+		String tabs = System.getProperty("muster.tabs", "NONE");
+		try {
+			return TabSharding.valueOf(tabs.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("-Dmuster.tabs=" + tabs + " is not NONE, MONTH or TERM, using one tab.");
+			return TabSharding.NONE;
+		}
+	}
+	
 	// Prints the names and majors of students in a sample spreadsheet:
 	// https://docs.google.com/spreadsheets/d/1BxiMVs0XRA5nFMdKvBdBZjgmUUqptlbs74OgvE2upms/edit
 	// 1BxiMVs0XRA5nFMdKvBdBZjgmUUqptlbs74OgvE2upms
@@ -36,6 +131,338 @@ public class Preferences {
 		Preferences.sheetID = sheetID;
 	}
 	
+	/**
+	 * @return {@code true} if sign ins are queued and written in batches
+	 * 		instead of one network call each.
+	 */
+	public static boolean isWriteBehind() {
+		return writeBehind;
+	}
+	
+	public static void setWriteBehind(boolean writeBehind) {
+		Preferences.writeBehind = writeBehind;
+	}
+	
+	/**
+	 * @return how long a queued write may wait before the batch is sent.
+	 */
+	public static long getFlushIntervalMillis() {
+		return flushIntervalMillis;
+	}
+	
+	public static void setFlushIntervalMillis(long flushIntervalMillis) {
+		Preferences.flushIntervalMillis = flushIntervalMillis;
+	}
+	
+	/**
+	 * @return how many queued writes send the batch early.
+	 */
+	public static int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+	
+	public static void setMaxBatchSize(int maxBatchSize) {
+		Preferences.maxBatchSize = maxBatchSize;
+	}
+	
+	/**
+	 * @return {@code true} if sign ins are confirmed once they're in the
+	 * 		local journal, and replayed onto the sheet in the background.
+	 */
+	public static boolean isJournaling() {
+		return journaling;
+	}
+	
+	public static void setJournaling(boolean journaling) {
+		Preferences.journaling = journaling;
+	}
+	
+	/**
+	 * @return how many times the replayer tries to get one sign in onto
+	 * 		the sheet before moving it to the dead letter file. With the
+	 * 		backoff that's about a quarter of an hour.
+	 */
+	public static int getJournalMaxAttempts() {
+		return journalMaxAttempts;
+	}
+	
+	public static void setJournalMaxAttempts(int journalMaxAttempts) {
+		Preferences.journalMaxAttempts = journalMaxAttempts;
+	}
+	
+	/**
+	 * @return {@code true} if the roster and dates are saved to disk and
+	 * 		loaded from there at the next start, instead of waiting on the sheet.
+	 * 		Read once when {@code SheetsHelper} is made.
+	 */
+	public static boolean isSnapshotting() {
+		return snapshotting;
+	}
+	
+	public static void setSnapshotting(boolean snapshotting) {
+		Preferences.snapshotting = snapshotting;
+	}
+	
+	/**
+	 * @return whether a second sign in on the same day keeps the first
+	 * 		time (and never goes to the sheet) or writes the new one.
+	 */
+	public static DuplicateSignIn getDuplicateSignIn() {
+		return duplicateSignIn;
+	}
+	
+	public static void setDuplicateSignIn(DuplicateSignIn duplicateSignIn) {
+		Preferences.duplicateSignIn = duplicateSignIn;
+	}
+	
+	/**
+	 * @return which tab a date's sign ins go on. Read once when
+	 * 		{@code SheetsHelper} is made.
+	 */
+	public static TabSharding getTabSharding() {
+		return tabSharding;
+	}
+	
+	public static void setTabSharding(TabSharding tabSharding) {
+		Preferences.tabSharding = tabSharding;
+	}
+	
+	/**
+	 * @return how many sign ins can be written at the same time.
+	 */
+	public static int getSignInWorkers() {
+		return signInWorkers;
+	}
+	
+	public static void setSignInWorkers(int signInWorkers) {
+		Preferences.signInWorkers = signInWorkers;
+	}
+	
+	/**
+	 * @return how many sign ins can wait for a worker before new ones are turned away.
+	 */
+	public static int getSignInQueueCapacity() {
+		return signInQueueCapacity;
+	}
+	
+	public static void setSignInQueueCapacity(int signInQueueCapacity) {
+		Preferences.signInQueueCapacity = signInQueueCapacity;
+	}
+	
+	/**
+	 * @return how often the roster is checked for emails added by someone else,
+	 * 		0 if it never is. Read once when {@code SheetsHelper} is made.
+	 */
+	public static long getRosterSyncMillis() {
+		return rosterSyncMillis;
+	}
+	
+	public static void setRosterSyncMillis(long rosterSyncMillis) {
+		Preferences.rosterSyncMillis = rosterSyncMillis;
+	}
+	
+	/**
+	 * @return how many Sheets API calls may be made in 100 seconds,
+	 * 		0 if there's no limit. Read once when {@code SheetsHelper} is made.
+	 */
+	public static int getRequestsPer100Seconds() {
+		return requestsPer100Seconds;
+	}
+	
+	public static void setRequestsPer100Seconds(int requestsPer100Seconds) {
+		Preferences.requestsPer100Seconds = requestsPer100Seconds;
+	}
+	
+	/**
+	 * @return how many calls may go out back to back before the quota
+	 * 		starts spacing them out.
+	 */
+	public static int getRequestBurst() {
+		return requestBurst;
+	}
+	
+	public static void setRequestBurst(int requestBurst) {
+		Preferences.requestBurst = requestBurst;
+	}
+	
+	/**
+	 * @return how many times a call rejected with a 429 or 5xx is tried again.
+	 */
+	public static int getMaxRetries() {
+		return maxRetries;
+	}
+	
+	public static void setMaxRetries(int maxRetries) {
+		Preferences.maxRetries = maxRetries;
+	}
+	
+	/**
+	 * @return the longest wait before the first retry, doubled for every
+	 * 		retry after it.
+	 */
+	public static long getInitialBackoffMillis() {
+		return initialBackoffMillis;
+	}
+	
+	public static void setInitialBackoffMillis(long initialBackoffMillis) {
+		Preferences.initialBackoffMillis = initialBackoffMillis;
+	}
+	
+	/**
+	 * @return the longest wait before any retry.
+	 */
+	public static long getMaxBackoffMillis() {
+		return maxBackoffMillis;
+	}
+	
+	public static void setMaxBackoffMillis(long maxBackoffMillis) {
+		Preferences.maxBackoffMillis = maxBackoffMillis;
+	}
+	
+	/**
+	 * @return how long to wait for a connection to Google.
+	 */
+	public static int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+	
+	public static void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		Preferences.connectTimeoutMillis = connectTimeoutMillis;
+	}
+	
+	/**
+	 * @return how long to wait for Google to answer once connected.
+	 */
+	public static int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+	
+	public static void setReadTimeoutMillis(int readTimeoutMillis) {
+		Preferences.readTimeoutMillis = readTimeoutMillis;
+	}
+	
+	/**
+	 * @return how long before the access token expires to get a new one.
+	 */
+	public static long getTokenRefreshMarginMillis() {
+		return tokenRefreshMarginMillis;
+	}
+	
+	public static void setTokenRefreshMarginMillis(long tokenRefreshMarginMillis) {
+		Preferences.tokenRefreshMarginMillis = tokenRefreshMarginMillis;
+	}
+	
+	/**
+	 * @return the Sheets API root url, e.g. "http://localhost:8643/", or
+	 * 		{@code null} for Google's own. Google sign in is skipped when set.
+	 */
+	public static String getSheetsRootUrl() {
+		return sheetsRootUrl;
+	}
+	
+	public static void setSheetsRootUrl(String sheetsRootUrl) {
+		Preferences.sheetsRootUrl = sheetsRootUrl;
+	}
+	
+	/**
+	 * @return {@code true} if this kiosk takes sign ins from other kiosks
+	 * 		and writes them all. Read once at startup.
+	 */
+	public static boolean isAggregator() {
+		return aggregator;
+	}
+	
+	public static void setAggregator(boolean aggregator) {
+		Preferences.aggregator = aggregator;
+	}
+	
+	/**
+	 * @return the port the aggregator listens on.
+	 */
+	public static int getAggregatorPort() {
+		return aggregatorPort;
+	}
+	
+	public static void setAggregatorPort(int aggregatorPort) {
+		Preferences.aggregatorPort = aggregatorPort;
+	}
+	
+	/**
+	 * @return the aggregator to send sign ins to, {@code null} to write to
+	 * 		Google Sheets from this kiosk. Read once at startup.
+	 */
+	public static String getAggregatorUrl() {
+		return aggregatorUrl;
+	}
+	
+	public static void setAggregatorUrl(String aggregatorUrl) {
+		Preferences.aggregatorUrl = aggregatorUrl;
+	}
+	
+	/**
+	 * @return {@code true} if sign ins are appended to a log tab instead of
+	 * 		written into the email x date grid. Read once when {@code SheetsHelper} is made.
+	 */
+	public static boolean isEventLog() {
+		return eventLog;
+	}
+	
+	public static void setEventLog(boolean eventLog) {
+		Preferences.eventLog = eventLog;
+	}
+	
+	/**
+	 * @return how often the attendance grid is rebuilt from the log,
+	 * 		0 if it never is. Read once when {@code SheetsHelper} is made.
+	 */
+	public static long getAttendanceRebuildMillis() {
+		return attendanceRebuildMillis;
+	}
+	
+	public static void setAttendanceRebuildMillis(long attendanceRebuildMillis) {
+		Preferences.attendanceRebuildMillis = attendanceRebuildMillis;
+	}
+	
+	/**
+	 * @return what this kiosk is called in the log, the host name unless
+	 * 		it was set.
+	 */
+	public static String getKioskName() {
+		if (kioskName == null) {
+			try {
+				kioskName = InetAddress.getLocalHost().getHostName();
+			} catch (UnknownHostException e) {
+				kioskName = "kiosk";
+			}
+		}
+		return kioskName;
+	}
+	
+	public static void setKioskName(String kioskName) {
+		Preferences.kioskName = kioskName;
+	}
+	
+	/**
+	 * @return where the sign in journal lives, ~/.muster/journal
+	 */
+	public static Path journalDirectory() {
+		return Paths.get(System.getProperty("user.home"), ".muster", "journal");
+	}
+	
+	/**
+	 * @return how big a journal segment gets before a new one is started.
+	 */
+	public static long journalSegmentBytes() {
+		return 1024 * 1024;
+	}
+	
+	/**
+	 * @return where the sheet snapshots live, ~/.muster/snapshots
+	 */
+	public static Path snapshotDirectory() {
+		return Paths.get(System.getProperty("user.home"), ".muster", "snapshots");
+	}
+	
 	// Test sheet entitled "RHC Test"
 	public static String getTestSheetID() {
 		return "1wLqJrMyMIcwigWzaWiVj64xTcZBKfZ6-VOs1qpmqHZA";
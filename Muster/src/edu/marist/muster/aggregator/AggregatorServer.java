@@ -0,0 +1,169 @@
+package edu.marist.muster.aggregator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.marist.muster.sheets.SignInPipeline;
+
+/**
+ * <p>Lets other kiosks sign students in through this one, so a big event
+ * with several laptops has a single writer: one roster in memory, one
+ * batch of writes, no two kiosks racing to add the same row or date.
+ *
+ * <p>Two endpoints, plain text answers:
+ * 	<li>{@code POST /signin} with a form body {@code email=...&time=...}
+ * 		({@code time} is an ISO local date time, now if left off). Answers
+ * 		200 once the sign in is as safe as a local one (in the journal, or on
+ * 		the sheet), 400 for a bad request, 503 if it couldn't be signed in.
+ * 	<li>{@code GET /health} answers 200.
+ *
+ * <p>Sign ins go through this kiosk's own {@code SignInPipeline}, so they
+ * are journaled, queued and written exactly like the ones typed in here.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class AggregatorServer {
+
+	/// how long a request waits for its sign in before giving up, the
+	/// {@code RemoteSignInClient} waits longer than this for the answer
+	static final long SIGN_IN_TIMEOUT_SECONDS = 30;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final SignInPipeline pipeline;
+
+	/**
+	 * @param pipeline
+	 * 		where the sign ins go
+	 * @param address
+	 * 		where to listen, port 0 for any free port
+	 * @param threads
+	 * 		requests handled at the same time
+	 * @throws IOException
+	 * 		if the address can't be bound
+	 */
+	public AggregatorServer(SignInPipeline pipeline, InetSocketAddress address, int threads) throws IOException {
+		this.pipeline = pipeline;
+
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(threads, (r) -> {
+			Thread t = new Thread(r, "aggregator-http-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext("/signin", this::signIn);
+		server.createContext("/health", (exchange) -> respond(exchange, 200, "OK"));
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops listening, requests being handled get a second to finish.
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the port it's listening on, handy when it was made with port 0
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private void signIn(HttpExchange exchange) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			respond(exchange, 405, "POST a form with an email.");
+			return;
+		}
+
+		Map<String, String> form = parseForm(read(exchange.getRequestBody()));
+		String email = form.get("email");
+		if (email == null || email.trim().isEmpty()) {
+			respond(exchange, 400, "No email.");
+			return;
+		}
+
+		LocalDateTime time;
+		try {
+			time = form.containsKey("time") ? LocalDateTime.parse(form.get("time")) : LocalDateTime.now();
+		} catch (DateTimeParseException e) {
+			respond(exchange, 400, "Bad time: " + form.get("time"));
+			return;
+		}
+
+		try {
+			pipeline.submit(email.trim(), time).get(SIGN_IN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			respond(exchange, 200, email.trim());
+		} catch (ExecutionException e) {
+			respond(exchange, 503, String.valueOf(e.getCause().getMessage()));
+		} catch (TimeoutException e) {
+			respond(exchange, 503, "Timed out signing in " + email + ".");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "Interrupted.");
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, n);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * "email=a.b1&time=2017-03-17T09%3A30" -> {email: "a.b1", time: "2017-03-17T09:30"}
+	 */
+	private static Map<String, String> parseForm(String body) throws IOException {
+		Map<String, String> form = new HashMap<>();
+		for (String pair : body.split("&")) {
+			if (pair.isEmpty())
+				continue;
+			int equals = pair.indexOf('=');
+			String key = equals < 0 ? pair : pair.substring(0, equals);
+			String value = equals < 0 ? "" : pair.substring(equals + 1);
+			form.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+		return form;
+	}
+}
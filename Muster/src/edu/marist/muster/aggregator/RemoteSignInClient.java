@@ -0,0 +1,164 @@
+package edu.marist.muster.aggregator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.marist.muster.Preferences;
+import edu.marist.muster.sheets.RosterIndex;
+import edu.marist.muster.sheets.SignInService;
+
+/**
+ * <p>Sends sign ins to the kiosk running the {@code AggregatorServer}
+ * instead of to Google Sheets.
+ * 	<li>Works like {@code SignInPipeline}: a few workers, a bounded queue,
+ * 		one future per sign in, completed on a worker thread.
+ * 	<li>The time is taken when the student signs in here, not when the
+ * 		aggregator gets around to it.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class RemoteSignInClient implements SignInService {
+
+	/// the aggregator's own wait plus time for its answer to get here. Giving
+	/// up sooner says "not signed in" about a sign in it may still write
+	private static final long ANSWER_TIMEOUT_MILLIS = TimeUnit.SECONDS
+			.toMillis(AggregatorServer.SIGN_IN_TIMEOUT_SECONDS + 10);
+
+	private final URL signInUrl;
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * @param aggregator
+	 * 		e.g. http://192.168.1.20:8642
+	 * @param workers
+	 * 		sign ins sent at the same time
+	 * @param queueCapacity
+	 * 		sign ins that can wait for a worker
+	 * @throws IOException
+	 * 		if the url is no good
+	 */
+	public RemoteSignInClient(String aggregator, int workers, int queueCapacity) throws IOException {
+		this.signInUrl = new URL(aggregator.replaceAll("/+$", "") + "/signin");
+
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory threads = (r) -> {
+			Thread t = new Thread(r, "remote-sign-in-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), threads);
+	}
+
+	@Override
+	public CompletableFuture<String> submit(String email) {
+		LocalDateTime time = LocalDateTime.now();
+		CompletableFuture<String> result = new CompletableFuture<>();
+		inFlight.incrementAndGet();
+		try {
+			executor.execute(() -> {
+				Throwable error = null;
+				try {
+					post(email, time);
+				} catch (Throwable t) {
+					error = t;
+				}
+				// done before the callbacks run, so they see the right count
+				inFlight.decrementAndGet();
+				if (error == null) {
+					result.complete(email);
+				} else {
+					result.completeExceptionally(error);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			inFlight.decrementAndGet();
+			result.completeExceptionally(new IOException("Too many sign ins waiting, " + email + " was not queued.", e));
+		}
+		return result;
+	}
+
+	@Override
+	public int inFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return {@code false}, the aggregator sorts out repeats when it marks them
+	 */
+	@Override
+	public boolean isSignedIn(String email) {
+		return false;
+	}
+
+	/**
+	 * @return {@code null}, the roster lives on the aggregator
+	 */
+	@Override
+	public RosterIndex roster() {
+		return null;
+	}
+
+	/**
+	 * Stops taking sign ins, the ones already queued still get sent.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private void post(String email, LocalDateTime time) throws IOException {
+		byte[] body = ("email=" + URLEncoder.encode(email, "UTF-8")
+				+ "&time=" + URLEncoder.encode(time.toString(), "UTF-8")).getBytes(StandardCharsets.UTF_8);
+
+		HttpURLConnection connection = (HttpURLConnection) signInUrl.openConnection();
+		connection.setConnectTimeout(Preferences.getConnectTimeoutMillis());
+		connection.setReadTimeout((int) Math.max(Preferences.getReadTimeoutMillis(), ANSWER_TIMEOUT_MILLIS));
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+		connection.setFixedLengthStreamingMode(body.length);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body);
+		}
+
+		int status = connection.getResponseCode();
+		if (status == 200) {
+			// read it all so the connection can be kept alive
+			read(connection.getInputStream());
+			return;
+		}
+		InputStream error = connection.getErrorStream();
+		String message = error != null ? read(error) : connection.getResponseMessage();
+		throw new IOException(email + " was not signed in by " + signInUrl.getHost() + ": " + message);
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int n;
+			while ((n = stream.read(buffer)) > 0) {
+				bytes.write(buffer, 0, n);
+			}
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,418 @@
+package edu.marist.muster.analytics;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import edu.marist.muster.Preferences;
+import edu.marist.muster.sheets.SheetsHelper;
+
+/**
+ * <p>Attendance numbers for the advisors, worked out in memory instead of
+ * with formulas on an exported sheet:
+ * 	<li>per student ({@code StudentStats}): sessions attended, attendance
+ * 		rate, longest and current streak, first and last seen, average
+ * 		arrival time.
+ * 	<li>per session: the headcount.
+ *
+ * <p>The grid is read once and kept in flat primitive arrays: one
+ * {@code int} per cell (seconds into the day, or blank), a row per student,
+ * the dates in order. Every student's numbers are worked out in parallel
+ * when it's loaded. After that {@code marked()} keeps up a sign in at a
+ * time, only the student signing in is worked out again (everyone is when
+ * a new date shows up, their current streaks just changed).
+ *
+ * <p>Dates and times are read with {@code Preferences.DATE_FORMAT} and
+ * {@code TIME_FORMAT}, header cells that aren't dates are left out. Only
+ * sees the tab in use when the sheet is split into tabs.
+ *
+ * <p>Thread safe.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class AttendanceAnalytics {
+
+	/// a blank cell
+	private static final int ABSENT = -1;
+
+	/// signed in, but the cell isn't a time {@code TIME_FORMAT} can read
+	private static final int NO_TIME = -2;
+
+	private final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT);
+
+	private final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern(Preferences.TIME_FORMAT);
+
+	/**
+	 * Lower case, in the order they're on the sheet.
+	 */
+	private List<String> emails = new ArrayList<>();
+
+	private Map<String, Integer> rows = new HashMap<>();
+
+	/**
+	 * The sessions, oldest first.
+	 */
+	private LocalDate[] dates = new LocalDate[0];
+
+	private Map<LocalDate, Integer> columns = new HashMap<>();
+
+	/**
+	 * Row by row, {@code dates.length} cells a row, room for more rows at the end.
+	 */
+	private int[] cells = new int[0];
+
+	/// per student, indexed by row
+	private int[] attended = new int[0];
+
+	private int[] longest = new int[0];
+
+	private int[] current = new int[0];
+
+	/// column of the first and last session they came to, -1 for none
+	private int[] first = new int[0];
+
+	private int[] last = new int[0];
+
+	/// seconds into the day, averaged over the cells with a time
+	private int[] arrival = new int[0];
+
+	/// per session, indexed by column
+	private int[] headcounts = new int[0];
+
+	/**
+	 * Sign ins that came in before the grid was loaded, put back on top of it.
+	 * {@code null} once it's loaded.
+	 */
+	private List<Object[]> early = new ArrayList<>();
+
+	/**
+	 * Reads the grid of the helper's sheet and keeps up with every sign in
+	 * it writes from then on.
+	 * @param helper
+	 * @return the analytics, loaded
+	 * @throws IOException
+	 * 		if the grid couldn't be read
+	 */
+	public static AttendanceAnalytics attach(SheetsHelper helper) throws IOException {
+		AttendanceAnalytics analytics = new AttendanceAnalytics();
+		// listening first, a sign in written while the grid is read isn't missed
+		helper.addMarkListener(analytics::marked);
+		analytics.load(helper.grid());
+		return analytics;
+	}
+
+	/**
+	 * Replaces everything with the grid.
+	 * @param grid
+	 * 		"Email" and the dates across the first row, then a row per student,
+	 * 		blanks as "" or missing off the end
+	 */
+	public void load(List<List<Object>> grid) {
+		List<Object> header = grid.isEmpty() ? new ArrayList<>() : grid.get(0);
+
+		// the dates in order, the sheet's columns needn't be
+		Map<LocalDate, Integer> columns = new HashMap<>();
+		List<LocalDate> sorted = new ArrayList<>();
+		for (int j = 1; j < header.size(); j++) {
+			LocalDate date = parseDate(header.get(j));
+			if (date != null && columns.putIfAbsent(date, 0) == null)
+				sorted.add(date);
+		}
+		sorted.sort(null);
+		LocalDate[] dates = sorted.toArray(new LocalDate[0]);
+		for (int j = 0; j < dates.length; j++) {
+			columns.put(dates[j], j);
+		}
+		int[] columnOf = new int[header.size()];
+		for (int j = 0; j < header.size(); j++) {
+			LocalDate date = j == 0 ? null : parseDate(header.get(j));
+			columnOf[j] = date == null ? -1 : columns.get(date);
+		}
+
+		// rows are found one after the other, the cells are read in parallel
+		List<String> emails = new ArrayList<>();
+		Map<String, Integer> rows = new HashMap<>();
+		int[] rowOf = new int[grid.size()];
+		List<Integer> repeats = new ArrayList<>(0);
+		for (int i = 1; i < grid.size(); i++) {
+			List<Object> line = grid.get(i);
+			String email = line.isEmpty() ? "" : line.get(0).toString().trim().toLowerCase();
+			if (email.isEmpty()) {
+				rowOf[i] = -1;
+				continue;
+			}
+			Integer row = rows.putIfAbsent(email, emails.size());
+			if (row == null) {
+				rowOf[i] = emails.size();
+				emails.add(email);
+			} else {
+				// the same email twice, folded into the first after the parallel part
+				rowOf[i] = -1;
+				repeats.add(i);
+			}
+		}
+
+		int d = dates.length;
+		int[] cells = new int[Math.max(emails.size(), 1) * d];
+		Arrays.fill(cells, ABSENT);
+		// a session's times are a few hundred strings over and over, each is parsed once
+		Map<String, Integer> times = new ConcurrentHashMap<>();
+		IntStream.range(1, grid.size()).parallel().filter((i) -> rowOf[i] >= 0)
+				.forEach((i) -> readRow(grid.get(i), columnOf, cells, rowOf[i] * d, times));
+		for (int i : repeats) {
+			int[] repeat = new int[d];
+			Arrays.fill(repeat, ABSENT);
+			readRow(grid.get(i), columnOf, repeat, 0, times);
+			int at = rows.get(grid.get(i).get(0).toString().trim().toLowerCase()) * d;
+			for (int j = 0; j < d; j++) {
+				if (cells[at + j] == ABSENT)
+					cells[at + j] = repeat[j];
+			}
+		}
+
+		List<Object[]> early;
+		synchronized (this) {
+			this.emails = emails;
+			this.rows = rows;
+			this.dates = dates;
+			this.columns = columns;
+			this.cells = cells;
+			int capacity = Math.max(emails.size(), 1);
+			attended = new int[capacity];
+			longest = new int[capacity];
+			current = new int[capacity];
+			first = new int[capacity];
+			last = new int[capacity];
+			arrival = new int[capacity];
+			recomputeAll();
+			early = this.early;
+			this.early = null;
+		}
+		if (early != null) {
+			for (Object[] signIn : early) {
+				marked((String) signIn[0], (LocalDateTime) signIn[1]);
+			}
+		}
+	}
+
+	/**
+	 * Counts a sign in, e.g. from {@code SheetsHelper.addMarkListener()}.
+	 * Only the student is worked out again, or everyone if the date is new.
+	 * @param email
+	 * @param time
+	 */
+	public synchronized void marked(String email, LocalDateTime time) {
+		if (early != null) {
+			early.add(new Object[] { email, time });
+			return;
+		}
+		email = email.toLowerCase();
+		Integer column = columns.get(time.toLocalDate());
+		if (column == null)
+			column = addDate(time.toLocalDate());
+		Integer row = rows.get(email);
+		if (row == null)
+			row = addEmail(email);
+
+		int at = row * dates.length + column;
+		if (cells[at] == ABSENT)
+			headcounts[column]++;
+		cells[at] = time.toLocalTime().toSecondOfDay();
+		compute(row);
+	}
+
+	/**
+	 * @param email
+	 * 		in any case
+	 * @return the student's numbers, {@code null} if they aren't on the grid
+	 */
+	public synchronized StudentStats student(String email) {
+		Integer row = rows.get(email.toLowerCase());
+		return row == null ? null : stats(row);
+	}
+
+	/**
+	 * @return every student's numbers, in the order they are on the sheet
+	 */
+	public synchronized List<StudentStats> students() {
+		List<StudentStats> students = new ArrayList<>(emails.size());
+		for (int row = 0; row < emails.size(); row++) {
+			students.add(stats(row));
+		}
+		return students;
+	}
+
+	/**
+	 * @return how many signed in at each session, oldest first
+	 */
+	public synchronized Map<LocalDate, Integer> headcounts() {
+		Map<LocalDate, Integer> counts = new LinkedHashMap<>();
+		for (int j = 0; j < dates.length; j++) {
+			counts.put(dates[j], headcounts[j]);
+		}
+		return counts;
+	}
+
+	/**
+	 * @return how many sessions there have been
+	 */
+	public synchronized int sessions() {
+		return dates.length;
+	}
+
+	private StudentStats stats(int row) {
+		return new StudentStats(emails.get(row), attended[row], dates.length, longest[row], current[row],
+				first[row] < 0 ? null : dates[first[row]], last[row] < 0 ? null : dates[last[row]],
+				arrival[row] < 0 ? null : LocalTime.ofSecondOfDay(arrival[row]));
+	}
+
+	/**
+	 * Works out every student and every headcount, in parallel.
+	 */
+	private void recomputeAll() {
+		IntStream.range(0, emails.size()).parallel().forEach(this::compute);
+		int d = dates.length;
+		int[] cells = this.cells;
+		headcounts = IntStream.range(0, emails.size()).parallel().collect(() -> new int[d], (counts, row) -> {
+			for (int j = 0, at = row * d; j < d; j++, at++) {
+				if (cells[at] != ABSENT)
+					counts[j]++;
+			}
+		}, (a, b) -> {
+			for (int j = 0; j < d; j++) {
+				a[j] += b[j];
+			}
+		});
+	}
+
+	/**
+	 * Works out one student from their row of cells.
+	 */
+	private void compute(int row) {
+		int d = dates.length;
+		int count = 0;
+		int run = 0;
+		int best = 0;
+		int firstColumn = -1;
+		int lastColumn = -1;
+		long seconds = 0;
+		int timed = 0;
+		for (int j = 0, at = row * d; j < d; j++, at++) {
+			int cell = cells[at];
+			if (cell == ABSENT) {
+				run = 0;
+				continue;
+			}
+			count++;
+			run++;
+			best = Math.max(best, run);
+			if (firstColumn < 0)
+				firstColumn = j;
+			lastColumn = j;
+			if (cell != NO_TIME) {
+				seconds += cell;
+				timed++;
+			}
+		}
+		attended[row] = count;
+		longest[row] = best;
+		current[row] = run;
+		first[row] = firstColumn;
+		last[row] = lastColumn;
+		arrival[row] = timed == 0 ? -1 : (int) (seconds / timed);
+	}
+
+	/**
+	 * Puts a new session in its place among the dates, which moves every
+	 * cell after it, so everyone is worked out again.
+	 * @return its column
+	 */
+	private int addDate(LocalDate date) {
+		int d = dates.length;
+		int at = -Arrays.binarySearch(dates, date) - 1;
+		LocalDate[] wider = Arrays.copyOf(dates, d + 1);
+		System.arraycopy(dates, at, wider, at + 1, d - at);
+		wider[at] = date;
+
+		int capacity = attended.length;
+		int[] moved = new int[capacity * (d + 1)];
+		Arrays.fill(moved, ABSENT);
+		int[] cells = this.cells;
+		IntStream.range(0, emails.size()).parallel().forEach((row) -> {
+			System.arraycopy(cells, row * d, moved, row * (d + 1), at);
+			System.arraycopy(cells, row * d + at, moved, row * (d + 1) + at + 1, d - at);
+		});
+
+		dates = wider;
+		this.cells = moved;
+		for (int j = at; j <= d; j++) {
+			columns.put(dates[j], j);
+		}
+		recomputeAll();
+		return at;
+	}
+
+	/**
+	 * Adds a row of blanks, doubling the room when it runs out.
+	 * @return its row
+	 */
+	private int addEmail(String email) {
+		int row = emails.size();
+		if (row == attended.length) {
+			int capacity = Math.max(row * 2, 16);
+			cells = Arrays.copyOf(cells, capacity * dates.length);
+			attended = Arrays.copyOf(attended, capacity);
+			longest = Arrays.copyOf(longest, capacity);
+			current = Arrays.copyOf(current, capacity);
+			first = Arrays.copyOf(first, capacity);
+			last = Arrays.copyOf(last, capacity);
+			arrival = Arrays.copyOf(arrival, capacity);
+		}
+		Arrays.fill(cells, row * dates.length, (row + 1) * dates.length, ABSENT);
+		emails.add(email);
+		rows.put(email, row);
+		compute(row);
+		return row;
+	}
+
+	private void readRow(List<Object> line, int[] columnOf, int[] into, int offset, Map<String, Integer> times) {
+		for (int j = 1; j < line.size() && j < columnOf.length; j++) {
+			if (columnOf[j] < 0)
+				continue;
+			String cell = line.get(j) == null ? "" : line.get(j).toString().trim();
+			if (cell.isEmpty())
+				continue;
+			into[offset + columnOf[j]] = times.computeIfAbsent(cell, this::parseTime);
+		}
+	}
+
+	private LocalDate parseDate(Object cell) {
+		if (cell == null)
+			return null;
+		try {
+			return LocalDate.parse(cell.toString().trim(), dateFormat);
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	private int parseTime(String cell) {
+		try {
+			return LocalTime.parse(cell, timeFormat).toSecondOfDay();
+		} catch (DateTimeParseException e) {
+			return NO_TIME; // something's there, they came
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package edu.marist.muster.analytics;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * One student's attendance, see {@code AttendanceAnalytics}. Immutable.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class StudentStats {
+
+	private final String email;
+
+	private final int attended;
+
+	private final int sessions;
+
+	private final int longestStreak;
+
+	private final int currentStreak;
+
+	private final LocalDate firstSeen;
+
+	private final LocalDate lastSeen;
+
+	private final LocalTime averageArrival;
+
+	StudentStats(String email, int attended, int sessions, int longestStreak, int currentStreak,
+			LocalDate firstSeen, LocalDate lastSeen, LocalTime averageArrival) {
+		this.email = email;
+		this.attended = attended;
+		this.sessions = sessions;
+		this.longestStreak = longestStreak;
+		this.currentStreak = currentStreak;
+		this.firstSeen = firstSeen;
+		this.lastSeen = lastSeen;
+		this.averageArrival = averageArrival;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	/**
+	 * @return how many sessions (dates) the student signed in on
+	 */
+	public int getAttended() {
+		return attended;
+	}
+
+	/**
+	 * @return how many sessions there were
+	 */
+	public int getSessions() {
+		return sessions;
+	}
+
+	/**
+	 * @return attended out of every session, 0 to 1
+	 */
+	public double getRate() {
+		return sessions == 0 ? 0 : (double) attended / sessions;
+	}
+
+	/**
+	 * @return the most sessions in a row the student came to
+	 */
+	public int getLongestStreak() {
+		return longestStreak;
+	}
+
+	/**
+	 * @return how many sessions in a row up to and including the latest
+	 * 		one, 0 if they missed it
+	 */
+	public int getCurrentStreak() {
+		return currentStreak;
+	}
+
+	/**
+	 * @return the first session they came to, {@code null} if none
+	 */
+	public LocalDate getFirstSeen() {
+		return firstSeen;
+	}
+
+	/**
+	 * @return the last session they came to, {@code null} if none
+	 */
+	public LocalDate getLastSeen() {
+		return lastSeen;
+	}
+
+	/**
+	 * @return the average time they signed in, {@code null} if no time
+	 * 		could be read
+	 */
+	public LocalTime getAverageArrival() {
+		return averageArrival;
+	}
+
+	@Override
+	public String toString() {
+		return email + ": " + attended + "/" + sessions + ", streak " + currentStreak + " (longest "
+				+ longestStreak + "), seen " + firstSeen + " to " + lastSeen;
+	}
+}
@@ -0,0 +1,170 @@
+package edu.marist.muster.journal;
+
+import java.io.IOException;
+import java.util.List;
+
+import edu.marist.muster.Preferences;
+import edu.marist.muster.sheets.MarkResult;
+import edu.marist.muster.sheets.SheetsHelper;
+
+/**
+ * Background thread that drains the {@code SignInJournal} onto the sheet,
+ * in the order the sign ins happened.
+ *
+ * <p>Sign ins are only acknowledged (and eventually trimmed from the journal)
+ * once {@code SheetsHelper} says they're written. When the sheet can't be
+ * reached the replayer backs off and tries the same sign in again, so after
+ * an outage or a crash everything still ends up on the sheet. Replaying a
+ * sign in twice is harmless, it writes the same time into the same cell
+ * (or with the event log on, logs a second row that the grid rebuild folds
+ * into the first).
+ *
+ * <p>A sign in the sheet turns down (see {@code MarkResult.REJECTED})
+ * {@code Preferences.getJournalMaxAttempts()} times is moved to the
+ * journal's dead letter file, so one bad sign in can't hold up every one
+ * after it. Failures that aren't the sign in's fault (no network, a 5xx,
+ * a 429) only back off, however long the outage. A bad record in the journal itself is skipped the same way,
+ * see {@code SignInJournal.skipCorrupt()}.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class JournalReplayer {
+
+	/// how many sign ins to mark before acknowledging
+	private static final int BATCH_SIZE = 50;
+
+	/// how long to sleep when there's nothing to do (an append wakes it up early)
+	private static final long IDLE_WAIT_MILLIS = 5000;
+
+	private static final long MIN_BACKOFF_MILLIS = 1000;
+
+	private static final long MAX_BACKOFF_MILLIS = 60000;
+
+	private final SignInJournal journal;
+
+	private final SheetsHelper helper;
+
+	private final Thread thread;
+
+	private volatile boolean running;
+
+	/// the sign in at the front that keeps being rejected, and how many times it has
+	private SignInJournal.Position failing;
+
+	private int attempts;
+
+	public JournalReplayer(SignInJournal journal, SheetsHelper helper) {
+		this.journal = journal;
+		this.helper = helper;
+		this.thread = new Thread(this::run, "journal-replayer");
+		this.thread.setDaemon(true);
+	}
+
+	public void start() {
+		running = true;
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		thread.interrupt();
+	}
+
+	private void run() {
+		long backoff = MIN_BACKOFF_MILLIS;
+		while (running) {
+			try {
+				if (replayBatch()) {
+					backoff = MIN_BACKOFF_MILLIS;
+				} else {
+					System.err.println("Journal: sheet unavailable, retrying in " + backoff + "ms");
+					Thread.sleep(backoff);
+					backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Marks the next batch of sign ins and acknowledges however many made it.
+	 * @return {@code false} if the sheet refused something and we should back off
+	 * @throws InterruptedException
+	 */
+	private boolean replayBatch() throws InterruptedException {
+		List<SignInJournal.Record> batch;
+		try {
+			batch = journal.read(journal.checkpoint(), BATCH_SIZE);
+		} catch (SignInJournal.CorruptRecordException e) {
+			try {
+				journal.acknowledge(journal.skipCorrupt(e.getPosition()));
+				return true;
+			} catch (IOException e2) {
+				e2.printStackTrace();
+				return false;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		if (batch.isEmpty()) {
+			journal.awaitAppend(IDLE_WAIT_MILLIS);
+			return true;
+		}
+
+		SignInJournal.Position done = null;
+		MarkResult result = MarkResult.MARKED;
+		for (SignInJournal.Record r : batch) {
+			SignIn signIn = r.getSignIn();
+			helper.setSpreadSheetId(signIn.getSpreadsheetId());
+			result = helper.mark(signIn.getEmail(), signIn.getTime());
+			if (result != MarkResult.MARKED)
+				break;
+			done = r.getNext();
+		}
+		if (done == null)
+			return result == MarkResult.REJECTED && giveUpOn(batch.get(0));
+
+		try {
+			// with write-behind on, marked only means queued
+			helper.flush();
+			journal.acknowledge(done);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return result == MarkResult.MARKED;
+	}
+
+	/**
+	 * Counts another rejection of the sign in at the front of the journal,
+	 * and moves it to the dead letter file once it's had enough.
+	 * @return {@code true} if it was moved (and acknowledged), {@code false}
+	 * 		to back off and try it again
+	 */
+	private boolean giveUpOn(SignInJournal.Record first) {
+		SignInJournal.Position at = journal.checkpoint();
+		if (!at.equals(failing)) {
+			failing = at;
+			attempts = 0;
+		}
+		if (++attempts < Preferences.getJournalMaxAttempts())
+			return false;
+
+		SignIn signIn = first.getSignIn();
+		try {
+			journal.deadLetter(first);
+			journal.acknowledge(first.getNext());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		System.err.println("Journal: GAVE UP on " + signIn.getEmail() + " at " + signIn.getTime()
+				+ " (sheet " + signIn.getSpreadsheetId() + ") after " + attempts
+				+ " tries, it's in " + journal.deadLetterPath());
+		failing = null;
+		return true;
+	}
+}
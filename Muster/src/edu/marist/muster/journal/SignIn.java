@@ -0,0 +1,42 @@
+package edu.marist.muster.journal;
+
+import java.time.LocalDateTime;
+
+/**
+ * A single accepted sign in: who, when, and which sheet it belongs on.
+ * Immutable.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class SignIn {
+
+	private final String spreadsheetId;
+
+	private final String email;
+
+	private final LocalDateTime time;
+
+	public SignIn(String spreadsheetId, String email, LocalDateTime time) {
+		this.spreadsheetId = spreadsheetId;
+		this.email = email;
+		this.time = time;
+	}
+
+	public String getSpreadsheetId() {
+		return spreadsheetId;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public LocalDateTime getTime() {
+		return time;
+	}
+
+	@Override
+	public String toString() {
+		return email + " at " + time + " on " + spreadsheetId;
+	}
+}
@@ -0,0 +1,531 @@
+package edu.marist.muster.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Append-only write-ahead log of sign ins, so nothing is lost when
+ * Google Sheets (or the Wi-Fi) isn't there.
+ * 	<li>Every {@code append()} is fsync'ed before it returns, once it returns
+ * 		the sign in survives a crash.
+ * 	<li>Records are checksummed, a half written record at the end of the
+ * 		log (power cut mid write) is dropped when the journal is opened.
+ * 	<li>A bad record anywhere else stops {@code read()} right there, see
+ * 		{@code CorruptRecordException}. {@code skipCorrupt()} keeps a copy
+ * 		of the segment and carries on at the next good record, so nothing
+ * 		behind it is lost.
+ * 	<li>The log is split into segment files, a new one is started once the
+ * 		current one reaches {@code maxSegmentBytes}.
+ * 	<li>{@code acknowledge()} remembers how far the sheet has caught up
+ * 		(in a checkpoint file) and deletes segments that are all caught up.
+ * 	<li>Sign ins the sheet never takes go to {@code deadLetter()}, a file
+ * 		in the same format that nothing deletes.
+ *
+ * <p>Record layout: {@code int length, int crc32, payload}. The payload is
+ * the spreadsheet id, email and ISO time, each written with {@code writeUTF}.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class SignInJournal implements Closeable {
+
+	/**
+	 * Where in the journal a record starts (or where the sheet has caught up to).
+	 * Immutable.
+	 */
+	public static final class Position {
+
+		private final long segment;
+
+		private final long offset;
+
+		public Position(long segment, long offset) {
+			this.segment = segment;
+			this.offset = offset;
+		}
+
+		public long getSegment() {
+			return segment;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Position))
+				return false;
+			Position other = (Position) o;
+			return segment == other.segment && offset == other.offset;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(segment) * 31 + Long.hashCode(offset);
+		}
+
+		@Override
+		public String toString() {
+			return segment + ":" + offset;
+		}
+	}
+
+	/**
+	 * Thrown by {@code read()} when the very first record it's asked for
+	 * doesn't check out (and isn't just the end of the log). Reading again
+	 * from the same place fails the same way, see {@code skipCorrupt()}.
+	 */
+	public static final class CorruptRecordException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Position position;
+
+		private CorruptRecordException(Position position) {
+			super("Bad record in the journal at " + position);
+			this.position = position;
+		}
+
+		/**
+		 * @return where the bad record starts
+		 */
+		public Position getPosition() {
+			return position;
+		}
+	}
+
+	/**
+	 * A sign in read back out of the journal, along with the position right
+	 * after it (what to {@code acknowledge()} once it's on the sheet).
+	 */
+	public static final class Record {
+
+		private final SignIn signIn;
+
+		private final Position next;
+
+		private Record(SignIn signIn, Position next) {
+			this.signIn = signIn;
+			this.next = next;
+		}
+
+		public SignIn getSignIn() {
+			return signIn;
+		}
+
+		public Position getNext() {
+			return next;
+		}
+	}
+
+	/// int length + int crc
+	private static final int HEADER_BYTES = 8;
+
+	/// nobody's email is this long, anything bigger is garbage
+	private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final String CHECKPOINT = "checkpoint";
+
+	private static final String DEAD_LETTER = "dead-letter.log";
+
+	private static final String CORRUPT_PREFIX = "corrupt-";
+
+	/**
+	 * Folder holding the segments and the checkpoint.
+	 */
+	private final Path directory;
+
+	/**
+	 * Start a new segment once the current one is this big.
+	 */
+	private final long maxSegmentBytes;
+
+	/**
+	 * Number of the segment being appended to.
+	 */
+	private long activeSegment;
+
+	/**
+	 * The segment being appended to.
+	 */
+	private FileChannel active;
+
+	/**
+	 * Everything before this is on the sheet.
+	 */
+	private Position checkpoint;
+
+	/**
+	 * Opens (or creates) the journal in the given directory. Drops a torn
+	 * record at the end of the newest segment, if there is one. A bad record
+	 * with good ones after it is left alone for {@code read()} to find.
+	 * @param directory
+	 * @param maxSegmentBytes
+	 * @throws IOException
+	 */
+	public SignInJournal(Path directory, long maxSegmentBytes) throws IOException {
+		this.directory = directory;
+		this.maxSegmentBytes = maxSegmentBytes;
+		Files.createDirectories(directory);
+
+		checkpoint = readCheckpoint();
+
+		TreeSet<Long> segments = segments();
+		activeSegment = segments.isEmpty() ? checkpoint.getSegment() : Math.max(segments.last(), checkpoint.getSegment());
+		active = FileChannel.open(segmentPath(activeSegment), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		// a crash mid append leaves half a record at the end, cut it off
+		// so new records don't end up behind it
+		long valid = validLength(active);
+		if (valid < active.size()) {
+			System.err.println("Journal: dropping " + (active.size() - valid) + " torn bytes from segment " + activeSegment);
+			active.truncate(valid);
+			active.force(true);
+		}
+		active.position(active.size());
+	}
+
+	/**
+	 * Writes the sign in to disk and waits for the disk to say it's there.
+	 * @param signIn
+	 * @throws IOException
+	 */
+	public synchronized void append(SignIn signIn) throws IOException {
+		ByteBuffer record = frame(signIn);
+
+		if (active.size() > 0 && active.size() + record.remaining() > maxSegmentBytes)
+			rotate();
+
+		while (record.hasRemaining()) {
+			active.write(record);
+		}
+		active.force(false);
+
+		// wake up the replayer
+		notifyAll();
+	}
+
+	/**
+	 * Reads up to {@code max} sign ins starting at the given position,
+	 * moving on to later segments as needed. Stops short at a bad record,
+	 * so nothing after it gets acknowledged by accident.
+	 * @param from
+	 * @param max
+	 * @return the records in the order they were appended, empty if caught up
+	 * @throws CorruptRecordException
+	 * 		if the record at {@code from} is bad
+	 * @throws IOException
+	 */
+	public synchronized List<Record> read(Position from, int max) throws IOException {
+		List<Record> records = new ArrayList<>();
+		for (long segment : segments().tailSet(from.getSegment())) {
+			long offset = segment == from.getSegment() ? from.getOffset() : 0;
+			try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+				while (records.size() < max) {
+					Record r = readRecord(channel, segment, offset);
+					if (r == null) {
+						if (offset >= channel.size())
+							break; // end of the segment, on to the next
+						Position bad = new Position(segment, offset);
+						System.err.println("Journal: bad record at " + bad + ", stopping there");
+						if (records.isEmpty())
+							throw new CorruptRecordException(bad);
+						return records;
+					}
+					records.add(r);
+					offset = r.getNext().getOffset();
+				}
+			}
+			if (records.size() >= max)
+				break;
+		}
+		return records;
+	}
+
+	/**
+	 * Gets past a bad record: copies its segment to {@code corrupt-...}
+	 * (kept for someone to look at, nothing deletes it) and finds the next
+	 * record in the segment that checks out.
+	 * @param at
+	 * 		from {@code CorruptRecordException.getPosition()}
+	 * @return where to carry on reading, the end of the segment if nothing
+	 * 		after the bad record is any good
+	 * @throws IOException
+	 */
+	public synchronized Position skipCorrupt(Position at) throws IOException {
+		Path segment = segmentPath(at.getSegment());
+		Path copy = directory.resolve(CORRUPT_PREFIX + segment.getFileName());
+		Files.copy(segment, copy, StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory();
+
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+			long next = nextValidOffset(channel, at.getSegment(), at.getOffset() + 1);
+			Position resume = new Position(at.getSegment(), next < 0 ? channel.size() : next);
+			System.err.println("Journal: skipped " + (resume.getOffset() - at.getOffset())
+					+ " bad bytes at " + at + ", the segment is kept as " + copy);
+			return resume;
+		}
+	}
+
+	/**
+	 * Sets a sign in aside for good, in {@code dead-letter.log} next to the
+	 * segments (same record layout). Fsync'ed like {@code append()}.
+	 * @param record
+	 * @throws IOException
+	 */
+	public synchronized void deadLetter(Record record) throws IOException {
+		ByteBuffer framed = frame(record.getSignIn());
+		try (FileChannel channel = FileChannel.open(directory.resolve(DEAD_LETTER), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			while (framed.hasRemaining()) {
+				channel.write(framed);
+			}
+			channel.force(false);
+		}
+		syncDirectory();
+	}
+
+	/**
+	 * @return the dead letter file, which might not exist yet
+	 */
+	public Path deadLetterPath() {
+		return directory.resolve(DEAD_LETTER);
+	}
+
+	/**
+	 * @return the position the sheet has caught up to
+	 */
+	public synchronized Position checkpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Remembers that everything before {@code upTo} is on the sheet, and
+	 * deletes the segments that are completely on the sheet.
+	 * @param upTo
+	 * @throws IOException
+	 */
+	public synchronized void acknowledge(Position upTo) throws IOException {
+		writeCheckpoint(upTo);
+		checkpoint = upTo;
+
+		for (long segment : segments().headSet(upTo.getSegment())) {
+			Files.deleteIfExists(segmentPath(segment));
+		}
+	}
+
+	/**
+	 * Waits for the next {@code append()}, or until the timeout passes.
+	 * @param timeoutMillis
+	 * @throws InterruptedException
+	 */
+	public synchronized void awaitAppend(long timeoutMillis) throws InterruptedException {
+		wait(timeoutMillis);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		active.close();
+	}
+
+	private void rotate() throws IOException {
+		active.close();
+		activeSegment++;
+		active = FileChannel.open(segmentPath(activeSegment), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		syncDirectory();
+	}
+
+	/**
+	 * Reads the record at {@code offset}.
+	 * @return the record, or {@code null} at the end of the segment
+	 * 		(or at a record that doesn't check out, the caller says which)
+	 */
+	private Record readRecord(FileChannel channel, long segment, long offset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		if (!readFully(channel, header, offset))
+			return null;
+		header.flip();
+		int length = header.getInt();
+		int expectedCrc = header.getInt();
+		if (length <= 0 || length > MAX_RECORD_BYTES)
+			return null;
+
+		ByteBuffer payload = ByteBuffer.allocate(length);
+		if (!readFully(channel, payload, offset + HEADER_BYTES))
+			return null;
+
+		CRC32 crc = new CRC32();
+		crc.update(payload.array());
+		if ((int) crc.getValue() != expectedCrc)
+			return null;
+		SignIn signIn;
+		try {
+			signIn = decode(payload.array());
+		} catch (IOException | RuntimeException e) {
+			return null; // checks out, but isn't a sign in
+		}
+		return new Record(signIn, new Position(segment, offset + HEADER_BYTES + length));
+	}
+
+	/**
+	 * Looks byte by byte for the next record that checks out.
+	 * @return its offset, -1 if there isn't one
+	 */
+	private long nextValidOffset(FileChannel channel, long segment, long from) throws IOException {
+		long size = channel.size();
+		for (long offset = from; offset + HEADER_BYTES < size; offset++) {
+			if (readRecord(channel, segment, offset) != null)
+				return offset;
+		}
+		return -1;
+	}
+
+	private boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return where the last good record in the segment ends, anything
+	 * 		after that is a torn append. Bad records before it are stepped over.
+	 */
+	private long validLength(FileChannel channel) throws IOException {
+		long offset = 0;
+		while (true) {
+			Record r = readRecord(channel, activeSegment, offset);
+			if (r != null) {
+				offset = r.getNext().getOffset();
+				continue;
+			}
+			long next = nextValidOffset(channel, activeSegment, offset + 1);
+			if (next < 0)
+				return offset;
+			offset = next;
+		}
+	}
+
+	/**
+	 * @return the whole record for the sign in, header and all, ready to write
+	 */
+	private ByteBuffer frame(SignIn signIn) throws IOException {
+		byte[] payload = encode(signIn);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+		record.putInt(payload.length);
+		record.putInt((int) crc.getValue());
+		record.put(payload);
+		record.flip();
+		return record;
+	}
+
+	private byte[] encode(SignIn signIn) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeUTF(signIn.getSpreadsheetId());
+			out.writeUTF(signIn.getEmail());
+			out.writeUTF(signIn.getTime().toString());
+		}
+		return bytes.toByteArray();
+	}
+
+	private SignIn decode(byte[] payload) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+			String spreadsheetId = in.readUTF();
+			String email = in.readUTF();
+			LocalDateTime time = LocalDateTime.parse(in.readUTF());
+			return new SignIn(spreadsheetId, email, time);
+		}
+	}
+
+	private Position readCheckpoint() throws IOException {
+		Path path = directory.resolve(CHECKPOINT);
+		if (!Files.exists(path))
+			return new Position(0, 0);
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+			return new Position(in.readLong(), in.readLong());
+		}
+	}
+
+	/**
+	 * Writes a new checkpoint file next to the old one, then swaps it in,
+	 * so a crash leaves either the old or the new checkpoint, never half of one.
+	 */
+	private void writeCheckpoint(Position position) throws IOException {
+		Path tmp = directory.resolve(CHECKPOINT + ".tmp");
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putLong(position.getSegment());
+		buffer.putLong(position.getOffset());
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory();
+	}
+
+	/**
+	 * Makes new and renamed files in the directory durable. Not every
+	 * platform lets you open a directory, those just skip it.
+	 */
+	private void syncDirectory() {
+		try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+			dir.force(true);
+		} catch (IOException e) {
+			// Windows, nothing to do
+		}
+	}
+
+	private TreeSet<Long> segments() throws IOException {
+		TreeSet<Long> segments = new TreeSet<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path p : stream) {
+				String name = p.getFileName().toString();
+				String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+				try {
+					segments.add(Long.parseLong(number));
+				} catch (NumberFormatException e) {
+					// not one of ours
+				}
+			}
+		}
+		return segments;
+	}
+
+	private Path segmentPath(long segment) {
+		return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+	}
+}
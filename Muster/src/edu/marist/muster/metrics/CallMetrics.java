@@ -0,0 +1,81 @@
+package edu.marist.muster.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count, failures and latency histogram of one kind of call.
+ * Get one from {@code SheetsMetrics.call()}.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class CallMetrics implements CallMetricsMXBean {
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	CallMetrics() {}
+
+	/**
+	 * @param nanos
+	 * 		how long the call took, failed or not
+	 * @param succeeded
+	 */
+	public void record(long nanos, boolean succeeded) {
+		latency.record(nanos);
+		if (!succeeded)
+			failures.incrementAndGet();
+	}
+
+	@Override
+	public long getCount() {
+		return latency.count();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.get();
+	}
+
+	@Override
+	public double getMeanMillis() {
+		return latency.meanMillis();
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return latency.maxMillis();
+	}
+
+	@Override
+	public long getMedianMillis() {
+		return latency.percentileMillis(0.5);
+	}
+
+	@Override
+	public long get95thPercentileMillis() {
+		return latency.percentileMillis(0.95);
+	}
+
+	@Override
+	public long get99thPercentileMillis() {
+		return latency.percentileMillis(0.99);
+	}
+
+	@Override
+	public long[] getBucketBoundsMillis() {
+		return LatencyHistogram.bucketBoundsMillis();
+	}
+
+	@Override
+	public long[] getBucketCounts() {
+		return latency.bucketCounts();
+	}
+
+	@Override
+	public void reset() {
+		latency.reset();
+		failures.set(0);
+	}
+}
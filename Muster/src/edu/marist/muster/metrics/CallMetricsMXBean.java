@@ -0,0 +1,37 @@
+package edu.marist.muster.metrics;
+
+/**
+ * One kind of call (a backend method, or a step of a sign in) as seen from
+ * JConsole, under {@code edu.marist.muster:type=SheetsCall}.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public interface CallMetricsMXBean {
+
+	long getCount();
+
+	long getFailures();
+
+	double getMeanMillis();
+
+	double getMaxMillis();
+
+	long getMedianMillis();
+
+	long get95thPercentileMillis();
+
+	long get99thPercentileMillis();
+
+	/**
+	 * @return the upper bound of each histogram bucket, in milliseconds
+	 */
+	long[] getBucketBoundsMillis();
+
+	/**
+	 * @return how many calls fell in each bucket
+	 */
+	long[] getBucketCounts();
+
+	void reset();
+}
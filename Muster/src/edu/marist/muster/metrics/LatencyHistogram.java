@@ -0,0 +1,118 @@
+package edu.marist.muster.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Counts how long things took in fixed buckets, 1 ms up to 2 minutes
+ * (a call with timeouts and retries can easily take longer than 10 s).
+ * 	<li>Lock free, {@code record()} is a couple of atomic adds.
+ * 	<li>Percentiles are only as precise as the buckets: the answer is the
+ * 		upper bound of the bucket the percentile falls in.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Upper bound of every bucket, the last one catches everything slower.
+	 */
+	private static final long[] BOUNDS_MILLIS = {
+			1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 20000, 30000, 60000, 120000,
+			Long.MAX_VALUE };
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MILLIS.length);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos
+	 * 		how long it took
+	 */
+	public void record(long nanos) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int bucket = 0;
+		while (millis >= BOUNDS_MILLIS[bucket] && bucket < BOUNDS_MILLIS.length - 1) {
+			bucket++;
+		}
+		counts.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		maxNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	public long count() {
+		return count.get();
+	}
+
+	/**
+	 * @return the average in milliseconds, 0 if nothing was recorded
+	 */
+	public double meanMillis() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+	}
+
+	public double maxMillis() {
+		return maxNanos.get() / 1e6;
+	}
+
+	/**
+	 * @param percentile
+	 * 		e.g. 0.95
+	 * @return the upper bound, in milliseconds, of the bucket the percentile
+	 * 		falls in (the slowest time recorded for the last, unbounded one),
+	 * 		0 if nothing was recorded
+	 */
+	public long percentileMillis(double percentile) {
+		long[] snapshot = bucketCounts();
+		long total = 0;
+		for (long c : snapshot) {
+			total += c;
+		}
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(percentile * total);
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return i < BOUNDS_MILLIS.length - 1 ? BOUNDS_MILLIS[i] : (long) Math.ceil(maxMillis());
+		}
+		return (long) Math.ceil(maxMillis());
+	}
+
+	/**
+	 * @return how many times fell in each bucket, see {@code bucketBoundsMillis()}
+	 */
+	public long[] bucketCounts() {
+		long[] snapshot = new long[counts.length()];
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return the upper bound of each bucket (exclusive), in milliseconds
+	 */
+	public static long[] bucketBoundsMillis() {
+		return BOUNDS_MILLIS.clone();
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+}
@@ -0,0 +1,380 @@
+package edu.marist.muster.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>Where sign in time goes, published over JMX so it can be watched
+ * from JConsole on a running kiosk.
+ * 	<li>{@code edu.marist.muster:type=Sheets}: sign ins, API calls per
+ * 		sign in, model and vector hit ratios, queue depths.
+ * 	<li>{@code edu.marist.muster:type=SheetsCall,name=...}: count, failures
+ * 		and latency histogram per kind of call, e.g. {@code api.get} or
+ * 		{@code updateCell}.
+ *
+ * <p>There is one per JVM, see {@code getInstance()}. Everything is thread safe.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class SheetsMetrics implements SheetsMetricsMXBean {
+
+	private static final String DOMAIN = "edu.marist.muster";
+
+	/// how long {@code isThrottling()} stays true after a wait
+	private static final long THROTTLING_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private static SheetsMetrics instance;
+
+	/**
+	 * Something that may throw, for {@code time()}.
+	 */
+	@FunctionalInterface
+	public interface Call<T, E extends Exception> {
+		T call() throws E;
+	}
+
+	private final Map<String, CallMetrics> calls = new ConcurrentHashMap<>();
+
+	private final AtomicLong marks = new AtomicLong();
+
+	private final AtomicLong markFailures = new AtomicLong();
+
+	private final AtomicLong duplicateSignIns = new AtomicLong();
+
+	private final AtomicLong apiCalls = new AtomicLong();
+
+	private final AtomicLong apiFailures = new AtomicLong();
+
+	/// backend calls made by marks that have finished, for the average
+	private final AtomicLong markApiCalls = new AtomicLong();
+
+	private final AtomicLong maxMarkApiCalls = new AtomicLong();
+
+	/**
+	 * Backend calls made so far by the {@code mark()} running on this
+	 * thread, {@code null} when none is.
+	 */
+	private final ThreadLocal<long[]> currentMark = new ThreadLocal<>();
+
+	private final AtomicLong throttledCalls = new AtomicLong();
+
+	private final AtomicLong throttleWaitNanos = new AtomicLong();
+
+	private final AtomicLong retries = new AtomicLong();
+
+	/// {@code System.nanoTime()} of the last wait, {@code null} if there never was one
+	private volatile Long lastThrottled;
+
+	/// marks whose row and date column were already in the model
+	private final AtomicLong modelHits = new AtomicLong();
+
+	private final AtomicLong modelMisses = new AtomicLong();
+
+	/// {@code SheetsVector} reads answered from memory
+	private final AtomicLong vectorHits = new AtomicLong();
+
+	private final AtomicLong vectorMisses = new AtomicLong();
+
+	private volatile IntSupplier signInQueueDepth;
+
+	private volatile IntSupplier pendingWrites;
+
+	private SheetsMetrics() {}
+
+	/**
+	 * @return the metrics, registered with the platform MBean server the
+	 * 		first time
+	 */
+	public static synchronized SheetsMetrics getInstance() {
+		if (instance == null) {
+			instance = new SheetsMetrics();
+			register(instance, "type=Sheets");
+		}
+		return instance;
+	}
+
+	private static void register(Object bean, String properties) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			if (!server.isRegistered(name))
+				server.registerMBean(bean, name);
+		} catch (JMException e) {
+			// the numbers are still counted, just not visible
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param name
+	 * 		e.g. "api.get" or "readModel"
+	 * @return the metrics for that kind of call, made (and registered) the first time
+	 */
+	public CallMetrics call(String name) {
+		return calls.computeIfAbsent(name, (n) -> {
+			CallMetrics metrics = new CallMetrics();
+			register(metrics, "type=SheetsCall,name=" + n);
+			return metrics;
+		});
+	}
+
+	/**
+	 * Runs {@code call} and records how long it took under {@code name},
+	 * as a failure if it throws.
+	 * @param name
+	 * @param call
+	 * @return what {@code call} returned
+	 * @throws E
+	 */
+	public <T, E extends Exception> T time(String name, Call<T, E> call) throws E {
+		CallMetrics metrics = call(name);
+		long start = System.nanoTime();
+		boolean succeeded = false;
+		try {
+			T result = call.call();
+			succeeded = true;
+			return result;
+		} finally {
+			metrics.record(System.nanoTime() - start, succeeded);
+		}
+	}
+
+	/**
+	 * Records one backend call, see {@code InstrumentedSheetsBackend}.
+	 * @param method
+	 * 		the backend method, e.g. "get"
+	 * @param nanos
+	 * @param succeeded
+	 */
+	public void apiCall(String method, long nanos, boolean succeeded) {
+		call("api." + method).record(nanos, succeeded);
+		apiCalls.incrementAndGet();
+		if (!succeeded)
+			apiFailures.incrementAndGet();
+
+		long[] mark = currentMark.get();
+		if (mark != null)
+			mark[0]++;
+	}
+
+	/**
+	 * Records a call that waited for the quota, see {@code ThrottlingSheetsBackend}.
+	 * @param waitNanos
+	 */
+	public void throttled(long waitNanos) {
+		throttledCalls.incrementAndGet();
+		throttleWaitNanos.addAndGet(waitNanos);
+		lastThrottled = System.nanoTime();
+	}
+
+	/**
+	 * Records a call that is being tried again after a 429 or 5xx.
+	 * @param backoffNanos
+	 * 		how long it waits first
+	 */
+	public void retried(long backoffNanos) {
+		retries.incrementAndGet();
+		throttleWaitNanos.addAndGet(backoffNanos);
+		lastThrottled = System.nanoTime();
+	}
+
+	/**
+	 * Starts counting the backend calls made on this thread.
+	 */
+	public void markStarted() {
+		currentMark.set(new long[1]);
+	}
+
+	/**
+	 * Stops counting the backend calls made on this thread.
+	 * @param succeeded
+	 * 		what {@code mark()} returned
+	 */
+	public void markFinished(boolean succeeded) {
+		long[] mark = currentMark.get();
+		currentMark.remove();
+		marks.incrementAndGet();
+		if (!succeeded)
+			markFailures.incrementAndGet();
+		if (mark != null) {
+			markApiCalls.addAndGet(mark[0]);
+			maxMarkApiCalls.accumulateAndGet(mark[0], Math::max);
+		}
+	}
+
+	/**
+	 * Records a {@code mark()} that was a repeat, answered without the sheet.
+	 */
+	public void duplicateSignIn() {
+		duplicateSignIns.incrementAndGet();
+	}
+
+	/**
+	 * Records how a {@code mark()} found its cell.
+	 * @param hit
+	 * 		{@code true} if the model already had the row and the date
+	 * 		column, {@code false} if it had to read the sheet or add either
+	 */
+	public void modelLookup(boolean hit) {
+		(hit ? modelHits : modelMisses).incrementAndGet();
+	}
+
+	/**
+	 * Records a {@code SheetsVector} read.
+	 * @param hit
+	 * 		{@code true} if answered from memory, {@code false} if it went to the sheet
+	 */
+	public void vectorRead(boolean hit) {
+		(hit ? vectorHits : vectorMisses).incrementAndGet();
+	}
+
+	public void setSignInQueueDepth(IntSupplier signInQueueDepth) {
+		this.signInQueueDepth = signInQueueDepth;
+	}
+
+	public void setPendingWrites(IntSupplier pendingWrites) {
+		this.pendingWrites = pendingWrites;
+	}
+
+	@Override
+	public long getMarks() {
+		return marks.get();
+	}
+
+	@Override
+	public long getMarkSuccesses() {
+		return marks.get() - markFailures.get();
+	}
+
+	@Override
+	public long getMarkFailures() {
+		return markFailures.get();
+	}
+
+	@Override
+	public long getDuplicateSignIns() {
+		return duplicateSignIns.get();
+	}
+
+	@Override
+	public long getApiCalls() {
+		return apiCalls.get();
+	}
+
+	@Override
+	public long getApiFailures() {
+		return apiFailures.get();
+	}
+
+	@Override
+	public double getApiCallsPerMark() {
+		long n = marks.get();
+		return n == 0 ? 0 : (double) markApiCalls.get() / n;
+	}
+
+	@Override
+	public long getMaxApiCallsPerMark() {
+		return maxMarkApiCalls.get();
+	}
+
+	@Override
+	public long getModelHits() {
+		return modelHits.get();
+	}
+
+	@Override
+	public long getModelMisses() {
+		return modelMisses.get();
+	}
+
+	@Override
+	public double getModelHitRatio() {
+		return ratio(modelHits.get(), modelMisses.get());
+	}
+
+	@Override
+	public long getVectorHits() {
+		return vectorHits.get();
+	}
+
+	@Override
+	public long getVectorMisses() {
+		return vectorMisses.get();
+	}
+
+	@Override
+	public double getVectorHitRatio() {
+		return ratio(vectorHits.get(), vectorMisses.get());
+	}
+
+	/**
+	 * @return NaN before the first lookup, rather than a ratio nothing backs up
+	 */
+	private static double ratio(long hits, long misses) {
+		long n = hits + misses;
+		return n == 0 ? Double.NaN : (double) hits / n;
+	}
+
+	@Override
+	public int getSignInQueueDepth() {
+		IntSupplier depth = signInQueueDepth;
+		return depth == null ? 0 : depth.getAsInt();
+	}
+
+	@Override
+	public int getPendingWrites() {
+		IntSupplier pending = pendingWrites;
+		return pending == null ? 0 : pending.getAsInt();
+	}
+
+	@Override
+	public long getThrottledCalls() {
+		return throttledCalls.get();
+	}
+
+	@Override
+	public long getThrottleWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(throttleWaitNanos.get());
+	}
+
+	@Override
+	public long getRetries() {
+		return retries.get();
+	}
+
+	@Override
+	public boolean isThrottling() {
+		Long last = lastThrottled;
+		return last != null && System.nanoTime() - last < THROTTLING_WINDOW_NANOS;
+	}
+
+	@Override
+	public void reset() {
+		marks.set(0);
+		markFailures.set(0);
+		duplicateSignIns.set(0);
+		apiCalls.set(0);
+		apiFailures.set(0);
+		markApiCalls.set(0);
+		maxMarkApiCalls.set(0);
+		throttledCalls.set(0);
+		throttleWaitNanos.set(0);
+		retries.set(0);
+		modelHits.set(0);
+		modelMisses.set(0);
+		vectorHits.set(0);
+		vectorMisses.set(0);
+		for (CallMetrics metrics : calls.values()) {
+			metrics.reset();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package edu.marist.muster.metrics;
+
+/**
+ * Sign ins and Sheets API calls as seen from JConsole, under
+ * {@code edu.marist.muster:type=Sheets}. The per call latencies are
+ * separate beans, see {@code CallMetricsMXBean}.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public interface SheetsMetricsMXBean {
+
+	long getMarks();
+
+	long getMarkSuccesses();
+
+	long getMarkFailures();
+
+	/**
+	 * @return sign ins of someone already signed in that day, answered
+	 * 		without going to the sheet
+	 */
+	long getDuplicateSignIns();
+
+	/**
+	 * @return every call made to the backend, from sign ins or not
+	 */
+	long getApiCalls();
+
+	long getApiFailures();
+
+	/**
+	 * @return average backend calls made by one {@code mark()}
+	 */
+	double getApiCallsPerMark();
+
+	long getMaxApiCallsPerMark();
+
+	/**
+	 * @return marks whose row and date column were already in the
+	 * 		{@code SheetModel}
+	 */
+	long getModelHits();
+
+	/**
+	 * @return marks that had to read the sheet, or add a row or a column
+	 */
+	long getModelMisses();
+
+	/**
+	 * @return share of marks that were model hits, NaN before the first
+	 */
+	double getModelHitRatio();
+
+	/**
+	 * @return {@code SheetsVector} reads (header row, email column)
+	 * 		answered from memory
+	 */
+	long getVectorHits();
+
+	long getVectorMisses();
+
+	/**
+	 * @return share of vector reads answered from memory, NaN before the first
+	 */
+	double getVectorHitRatio();
+
+	/**
+	 * @return sign ins queued or being written
+	 */
+	int getSignInQueueDepth();
+
+	/**
+	 * @return cells waiting in the write-behind batch
+	 */
+	int getPendingWrites();
+
+	/**
+	 * @return calls that had to wait for the quota
+	 */
+	long getThrottledCalls();
+
+	/**
+	 * @return total time spent waiting for the quota and backing off
+	 */
+	long getThrottleWaitMillis();
+
+	/**
+	 * @return calls tried again after a 429 or 5xx
+	 */
+	long getRetries();
+
+	/**
+	 * @return {@code true} if a call waited for the quota or backed off
+	 * 		in the last 10 seconds
+	 */
+	boolean isThrottling();
+
+	void reset();
+}
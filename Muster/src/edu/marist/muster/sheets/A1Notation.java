@@ -0,0 +1,225 @@
+package edu.marist.muster.sheets;
+
+/**
+ * Converts between column indexes / row numbers and A1 notation
+ * ("A", "Z", "AA", ... "XFD"), the way Google Sheets names cells.
+ *
+ * <li>Column indexes start at 0 ("A").
+ * <li>Row numbers start at 1, just like on the sheet.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class A1Notation {
+
+	/**
+	 * A parsed range like "Sheet1!B2:D", "1:1" or "A5". Immutable.
+	 *
+	 * <li>Columns are indexes (0 is "A"), rows are row numbers (1 is the first row).
+	 * <li>An open side ("A5:A" has no last row, "1:1" has no columns) is {@code -1}.
+	 */
+	public static final class Range {
+
+		private final String sheet;
+
+		private final int firstColumn;
+
+		private final int firstRow;
+
+		private final int lastColumn;
+
+		private final int lastRow;
+
+		private Range(String sheet, int firstColumn, int firstRow, int lastColumn, int lastRow) {
+			this.sheet = sheet;
+			this.firstColumn = firstColumn;
+			this.firstRow = firstRow;
+			this.lastColumn = lastColumn;
+			this.lastRow = lastRow;
+		}
+
+		/**
+		 * @return the tab name before the "!", {@code null} if there wasn't one
+		 */
+		public String getSheet() {
+			return sheet;
+		}
+
+		/**
+		 * @return the first column index, 0 if the range didn't say
+		 */
+		public int getFirstColumn() {
+			return Math.max(firstColumn, 0);
+		}
+
+		/**
+		 * @return the first row number, 1 if the range didn't say
+		 */
+		public int getFirstRow() {
+			return Math.max(firstRow, 1);
+		}
+
+		/**
+		 * @return the last column index, or {@code -1} for "as far as there are values"
+		 */
+		public int getLastColumn() {
+			return lastColumn;
+		}
+
+		/**
+		 * @return the last row number, or {@code -1} for "as far as there are values"
+		 */
+		public int getLastRow() {
+			return lastRow;
+		}
+	}
+
+	/// Not meant to be instantiated
+	private A1Notation() {}
+
+	/**
+	 * Parses ranges the way Sheets writes them: "A5", "A2:A", "A:A", "1:1",
+	 * "C1:1", "B1:Z1", optionally with a tab in front ("Sheet1!A1",
+	 * "'Fall 2017'!A:A").
+	 *
+	 * @param range
+	 * @return the parsed range
+	 */
+	public static Range parseRange(String range) {
+		String sheet = null;
+		int bang = range.lastIndexOf('!');
+		if (bang >= 0) {
+			sheet = range.substring(0, bang);
+			if (sheet.length() >= 2 && sheet.startsWith("'") && sheet.endsWith("'"))
+				sheet = sheet.substring(1, sheet.length() - 1).replace("''", "'");
+			range = range.substring(bang + 1);
+		}
+
+		String[] ends = range.split(":", -1);
+		if (ends.length > 2 || ends[0].isEmpty())
+			throw new IllegalArgumentException("Not a range: " + range);
+
+		int[] first = parseEnd(ends[0]);
+		if (ends.length == 1) {
+			// a single cell, "A5"
+			return new Range(sheet, first[0], first[1], first[0], first[1]);
+		}
+		int[] last = parseEnd(ends[1]);
+		// "A:A" and "A2:A" go down forever, "1:1" and "C1:1" go right forever
+		return new Range(sheet, first[0], first[1], last[0], last[1]);
+	}
+
+	/**
+	 * Puts a tab in front of a range, quoting it when it needs to be:
+	 * ("Log", "A:D") -> "'Log'!A:D".
+	 *
+	 * @param sheet
+	 * 		the tab's title
+	 * @param range
+	 * 		e.g. "A:D"
+	 * @return the range on that tab
+	 */
+	public static String qualify(String sheet, String range) {
+		// always quoting is allowed, and saves deciding which titles need it
+		return "'" + sheet.replace("'", "''") + "'!" + range;
+	}
+
+	/**
+	 * @return {column index or -1, row number or -1}
+	 */
+	private static int[] parseEnd(String end) {
+		int i = 0;
+		while (i < end.length() && Character.isLetter(end.charAt(i))) {
+			i++;
+		}
+		int column = i > 0 ? lettersToColumn(end.substring(0, i)) : -1;
+		int row = i < end.length() ? Integer.parseInt(end.substring(i)) : -1;
+		if (column < 0 && row < 0)
+			throw new IllegalArgumentException("Not a range: " + end);
+		return new int[] { column, row };
+	}
+
+	/**
+	 * 0 -> "A", 25 -> "Z", 26 -> "AA", 701 -> "ZZ", 702 -> "AAA".
+	 *
+	 * @param index
+	 * 		column index, 0 is "A"
+	 * @return the column letters
+	 */
+	public static String columnToLetters(int index) {
+		if (index < 0)
+			throw new IllegalArgumentException("Column index can't be negative: " + index);
+
+		// bijective base 26, there's no zero digit
+		char[] letters = new char[7];
+		int i = letters.length;
+		int n = index + 1;
+		while (n > 0) {
+			n--;
+			letters[--i] = (char) ('A' + n % 26);
+			n /= 26;
+		}
+		return new String(letters, i, letters.length - i);
+	}
+
+	/**
+	 * "A" -> 0, "Z" -> 25, "AA" -> 26. Lower case works too.
+	 *
+	 * @param letters
+	 * @return the column index, 0 is "A"
+	 */
+	public static int lettersToColumn(String letters) {
+		if (letters == null || letters.isEmpty())
+			throw new IllegalArgumentException("No column letters");
+
+		int n = 0;
+		for (int i = 0; i < letters.length(); i++) {
+			char c = Character.toUpperCase(letters.charAt(i));
+			if (c < 'A' || c > 'Z')
+				throw new IllegalArgumentException("Not a column: " + letters);
+			n = n * 26 + (c - 'A' + 1);
+		}
+		return n - 1;
+	}
+
+	/**
+	 * @param column
+	 * 		column index, 0 is "A"
+	 * @param row
+	 * 		row number, 1 is the first row
+	 * @return the cell, e.g. (2, 4) -> "C4"
+	 */
+	public static String cell(int column, int row) {
+		if (row < 1)
+			throw new IllegalArgumentException("Rows start at 1: " + row);
+		return columnToLetters(column) + row;
+	}
+
+	/**
+	 * @param cell
+	 * 		e.g. "AB12"
+	 * @return the column index of the cell, e.g. 27
+	 */
+	public static int columnOf(String cell) {
+		return lettersToColumn(cell.substring(0, digitsStart(cell)));
+	}
+
+	/**
+	 * @param cell
+	 * 		e.g. "AB12"
+	 * @return the row number of the cell, e.g. 12
+	 */
+	public static int rowOf(String cell) {
+		return Integer.parseInt(cell.substring(digitsStart(cell)));
+	}
+
+	private static int digitsStart(String cell) {
+		int i = 0;
+		while (i < cell.length() && Character.isLetter(cell.charAt(i))) {
+			i++;
+		}
+		if (i == 0 || i == cell.length())
+			throw new IllegalArgumentException("Not a cell: " + cell);
+		return i;
+	}
+}
@@ -0,0 +1,216 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+/**
+ * <p>Write-behind queue for single cell writes.
+ * 	<li>Writes are held in memory and sent together in one
+ * 		{@code values().batchUpdate} call.
+ * 	<li>Flushes every {@code flushIntervalMillis}, or as soon as
+ * 		{@code maxBatchSize} cells are waiting, whichever comes first.
+ * 	<li>Two writes to the same cell in one batch only send the newest one.
+ * 	<li>If a flush fails the cells are put back and sent with the next
+ * 		batch, unless a newer value for the cell was queued meanwhile.
+ * 	<li>A cell goes to the spreadsheet that was set when it was queued,
+ * 		even if it's only sent after {@code setSpreadsheetId()}.
+ * 	<li>One flush at a time, so an older batch can't land after a newer one.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class BatchWriter {
+
+	/**
+	 * Access to Google Sheets (or something pretending to be it)
+	 */
+	private SheetsBackend backend;
+
+	/**
+	 * The spreadsheet's id, found in the url of the sheet. Where cells
+	 * queued from now on go.
+	 */
+	private String spreadsheetId;
+
+	/**
+	 * Send the batch once this many cells are waiting.
+	 */
+	private final int maxBatchSize;
+
+	/**
+	 * Spreadsheet id -> cell (e.g. "C4") -> value waiting to be written,
+	 * in the order they were queued.
+	 */
+	private final Map<String, Map<String, ValueRange>> pending = new LinkedHashMap<>();
+
+	/**
+	 * How many cells are in {@code pending}, over every spreadsheet.
+	 */
+	private int pendingCells;
+
+	/**
+	 * Held for the whole of a flush, network call included.
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * Runs the timed flushes (and the early ones when the batch is full)
+	 * off of whoever is queueing.
+	 */
+	private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor((r) -> {
+		Thread t = new Thread(r, "sheets-batch-writer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * @param backend
+	 * @param spreadsheetId
+	 * @param flushIntervalMillis
+	 * 		how long a write may wait before it is sent
+	 * @param maxBatchSize
+	 * 		how many cells may wait before they are sent
+	 */
+	public BatchWriter(SheetsBackend backend, String spreadsheetId, long flushIntervalMillis, int maxBatchSize) {
+		this.backend = backend;
+		this.spreadsheetId = spreadsheetId;
+		this.maxBatchSize = maxBatchSize;
+
+		flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+				TimeUnit.MILLISECONDS);
+
+		// don't lose whatever is still waiting when the kiosk is closed
+		Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly));
+	}
+
+	/**
+	 * Queues a single cell to be written with the next batch.
+	 * @param cell
+	 * 		e.g. "C4"
+	 * @param value
+	 */
+	public void queue(String cell, Object value) {
+		List<List<Object>> outer = new ArrayList<List<Object>>(1);
+		List<Object> inner = new ArrayList<Object>(1);
+		inner.add(value);
+		outer.add(inner);
+
+		boolean full;
+		synchronized (this) {
+			Map<String, ValueRange> cells = pending.computeIfAbsent(spreadsheetId, (id) -> new LinkedHashMap<>());
+			// newest value for a cell goes to the back of the line
+			if (cells.remove(cell) == null)
+				pendingCells++;
+			cells.put(cell, new ValueRange().setRange(cell).setValues(outer));
+			full = pendingCells >= maxBatchSize;
+		}
+		if (full)
+			flusher.execute(this::flushQuietly);
+	}
+
+	/**
+	 * @return how many cells are waiting to be written
+	 */
+	public synchronized int pendingCount() {
+		return pendingCells;
+	}
+
+	/**
+	 * Sends everything that is waiting in one {@code batchUpdate} (one per
+	 * spreadsheet, if cells for an old one are still waiting). Synchronous,
+	 * and waits for a flush already going on.
+	 * @throws IOException
+	 * 		if a batch could not be written, its cells are queued again
+	 */
+	public void flush() throws IOException {
+		synchronized (flushLock) {
+			Map<String, List<ValueRange>> batches = new LinkedHashMap<>();
+			synchronized (this) {
+				if (pending.isEmpty())
+					return;
+				for (Map.Entry<String, Map<String, ValueRange>> e : pending.entrySet()) {
+					batches.put(e.getKey(), new ArrayList<>(e.getValue().values()));
+				}
+				pending.clear();
+				pendingCells = 0;
+			}
+
+			IOException failed = null;
+			for (Map.Entry<String, List<ValueRange>> batch : batches.entrySet()) {
+				try {
+					backend.batchUpdate(batch.getKey(), batch.getValue(), ValueInputOption.USER_ENTERED);
+				} catch (IOException e) {
+					requeue(batch.getKey(), batch.getValue());
+					if (failed == null) {
+						failed = e;
+					} else {
+						failed.addSuppressed(e);
+					}
+				}
+			}
+			if (failed != null)
+				throw failed;
+		}
+	}
+
+	/**
+	 * Puts a failed batch back in front of anything queued since,
+	 * unless a newer value for the same cell is already waiting.
+	 * @param id
+	 * 		the spreadsheet the batch was for
+	 * @param batch
+	 */
+	private synchronized void requeue(String id, List<ValueRange> batch) {
+		Map<String, Map<String, ValueRange>> newer = new LinkedHashMap<>(pending);
+		pending.clear();
+		Map<String, ValueRange> cells = new LinkedHashMap<>();
+		Map<String, ValueRange> newerCells = newer.remove(id);
+		for (ValueRange v : batch) {
+			if (newerCells == null || !newerCells.containsKey(v.getRange())) {
+				cells.put(v.getRange(), v);
+				pendingCells++;
+			}
+		}
+		if (newerCells != null)
+			cells.putAll(newerCells);
+		pending.put(id, cells);
+		pending.putAll(newer);
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sends whatever is waiting to the old sheet before switching. If that
+	 * fails the cells stay queued for the old sheet, they never go to the
+	 * new one.
+	 * @param id
+	 */
+	public void setSpreadsheetId(String id) {
+		flushQuietly();
+		synchronized (this) {
+			this.spreadsheetId = id;
+		}
+	}
+
+	/**
+	 * Flushes one last time and stops the timer.
+	 */
+	public void close() {
+		flusher.shutdown();
+		flushQuietly();
+	}
+}
@@ -0,0 +1,13 @@
+package edu.marist.muster.sheets;
+
+/**
+ * Use {@code toString()} to get the string representation.
+ * 
+ * Represents the two types of dimensions for Google Sheets.
+ * 
+ * @author Tom Magnusson
+ *
+ */
+public enum Dimension {
+	ROWS, COLUMNS;
+}
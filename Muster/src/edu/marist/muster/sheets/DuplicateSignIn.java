@@ -0,0 +1,22 @@
+package edu.marist.muster.sheets;
+
+/**
+ * What to do when someone who is already signed in today signs in again
+ * (pressed "I'm Here!" twice, tapped their card again).
+ * 
+ *  <li>{@code KEEP_FIRST} answers "already here" and doesn't touch the
+ *  	sheet, the time of the first sign in stays.
+ *  <li>{@code KEEP_LAST} writes the new time over the old one, like
+ *  	every sign in used to, so every repeat is a write to the sheet.
+ * 
+ * <p>"Already signed in" is what {@code SheetModel} knows: sign ins at this
+ * kiosk, plus today's column on the sheet as of the last load or roster
+ * sync. A repeat at a second kiosk before that kiosk's next sync isn't
+ * known, and is written like {@code KEEP_LAST}.
+ * 
+ * @author Tom Magnusson
+ *
+ */
+public enum DuplicateSignIn {
+	KEEP_FIRST, KEEP_LAST;
+}
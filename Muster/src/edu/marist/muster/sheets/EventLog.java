@@ -0,0 +1,387 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+
+import edu.marist.muster.Preferences;
+import edu.marist.muster.journal.SignIn;
+
+/**
+ * <p>Append-only storage for sign ins: one {@code Email, Date, Time, Kiosk}
+ * row per sign in on its own tab, instead of a time in the email x date grid.
+ * 	<li>A sign in is a single {@code values().append}, nothing is read
+ * 		first, so it costs the same however long the roster or wide the sheet is.
+ * 	<li>The tab (and its header row) is made the first time it's needed.
+ * 	<li>With {@code flushIntervalMillis} set, rows are held and sent
+ * 		together in one append, like {@code BatchWriter} does for cells.
+ * 		A held row goes to the spreadsheet that was set when it was logged,
+ * 		and one flush (or {@code logAll()}) runs at a time, so the log
+ * 		stays in order.
+ * 	<li>The grid is rebuilt from the log when it's wanted, see
+ * 		{@code attendance()} and {@code writeAttendance()}.
+ *
+ * <p>Values are written {@code RAW}, so the dates and times read back
+ * exactly as they were written.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class EventLog {
+
+	private static final List<Object> HEADER = Arrays.<Object>asList("Email", "Date", "Time", "Kiosk");
+
+	/**
+	 * Access to Google Sheets (or something pretending to be it)
+	 */
+	private final SheetsBackend backend;
+
+	/**
+	 * The spreadsheet's id, found in the url of the sheet
+	 */
+	private String spreadsheetId;
+
+	/**
+	 * The log tab's title, e.g. "Log".
+	 */
+	private final String title;
+
+	/**
+	 * Written into the kiosk column of every row.
+	 */
+	private final String kiosk;
+
+	/**
+	 * Whether the log tab is known to exist on {@code spreadsheetId}.
+	 */
+	private boolean tabReady;
+
+	/**
+	 * Send the held rows once this many are waiting.
+	 */
+	private final int maxBatchSize;
+
+	/**
+	 * Spreadsheet id -> rows waiting to be appended to it, in the order
+	 * they were signed in. Always empty when write-behind is off.
+	 */
+	private final Map<String, List<List<Object>>> pending = new LinkedHashMap<>();
+
+	/**
+	 * How many rows are in {@code pending}, over every spreadsheet.
+	 */
+	private int pendingRows;
+
+	/**
+	 * Held for the whole of a flush, network call included.
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * Runs the timed flushes, {@code null} when rows are appended right away.
+	 */
+	private final ScheduledExecutorService flusher;
+
+	/**
+	 * @param backend
+	 * @param spreadsheetId
+	 * @param title
+	 * 		the log tab's title
+	 * @param kiosk
+	 * 		who is writing, goes in every row
+	 * @param flushIntervalMillis
+	 * 		how long a row may wait before it is sent, 0 to send every row
+	 * 		as soon as it's logged
+	 * @param maxBatchSize
+	 * 		how many rows may wait before they are sent
+	 */
+	public EventLog(SheetsBackend backend, String spreadsheetId, String title, String kiosk,
+			long flushIntervalMillis, int maxBatchSize) {
+		this.backend = backend;
+		this.spreadsheetId = spreadsheetId;
+		this.title = title;
+		this.kiosk = kiosk;
+		this.maxBatchSize = maxBatchSize;
+
+		if (flushIntervalMillis > 0) {
+			flusher = Executors.newSingleThreadScheduledExecutor((r) -> {
+				Thread t = new Thread(r, "sheets-event-log");
+				t.setDaemon(true);
+				return t;
+			});
+			flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+					TimeUnit.MILLISECONDS);
+			// don't lose whatever is still waiting when the kiosk is closed
+			Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly));
+		} else {
+			flusher = null;
+		}
+	}
+
+	/**
+	 * Logs a sign in. Synchronous unless write-behind is on, then the row
+	 * is only queued.
+	 * @param email
+	 * @param time
+	 * @throws IOException
+	 * 		if the row went straight to the network and failed
+	 */
+	public void log(String email, LocalDateTime time) throws IOException {
+		List<Object> row = row(email, time);
+
+		if (flusher == null) {
+			List<List<Object>> rows = new ArrayList<>(1);
+			rows.add(row);
+			append(spreadsheetId(), rows);
+			return;
+		}
+
+		boolean full;
+		synchronized (this) {
+			pending.computeIfAbsent(spreadsheetId, (id) -> new ArrayList<>()).add(row);
+			pendingRows++;
+			full = pendingRows >= maxBatchSize;
+		}
+		if (full)
+			flusher.execute(this::flushQuietly);
+	}
+
+	/**
+	 * Logs a lot of sign ins in one append (see {@code SheetsHelper.markAll()}),
+	 * after anything write-behind is holding so the log stays in order.
+	 * Synchronous.
+	 * @param signIns
+	 * @throws IOException
+	 */
+	public void logAll(List<SignIn> signIns) throws IOException {
+		List<List<Object>> rows = new ArrayList<>(signIns.size());
+		for (SignIn signIn : signIns) {
+			rows.add(row(signIn.getEmail().toLowerCase(), signIn.getTime()));
+		}
+		// no timed flush can slip in between
+		synchronized (flushLock) {
+			flush();
+			append(spreadsheetId(), rows);
+		}
+	}
+
+	private List<Object> row(String email, LocalDateTime time) {
+		return Arrays.<Object>asList(email,
+				time.toLocalDate().format(DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT)),
+				time.toLocalTime().format(DateTimeFormatter.ofPattern(Preferences.TIME_FORMAT)),
+				kiosk);
+	}
+
+	/**
+	 * @return how many rows are waiting to be appended
+	 */
+	public synchronized int pendingCount() {
+		return pendingRows;
+	}
+
+	/**
+	 * Appends everything that is waiting, one call per spreadsheet. Synchronous.
+	 * @throws IOException
+	 * 		if rows could not be written, they are queued again (the first
+	 * 		failure is thrown, any others are suppressed in it)
+	 */
+	public void flush() throws IOException {
+		synchronized (flushLock) {
+			Map<String, List<List<Object>>> batches;
+			synchronized (this) {
+				if (pending.isEmpty())
+					return;
+				batches = new LinkedHashMap<>(pending);
+				pending.clear();
+				pendingRows = 0;
+			}
+
+			IOException failed = null;
+			for (Map.Entry<String, List<List<Object>>> batch : batches.entrySet()) {
+				try {
+					append(batch.getKey(), batch.getValue());
+				} catch (IOException e) {
+					requeue(batch.getKey(), batch.getValue());
+					if (failed == null) {
+						failed = e;
+					} else {
+						failed.addSuppressed(e);
+					}
+				}
+			}
+			if (failed != null)
+				throw failed;
+		}
+	}
+
+	/**
+	 * Puts rows that didn't make it back in front of anything logged to the
+	 * same spreadsheet since, so the log stays in order.
+	 */
+	private synchronized void requeue(String id, List<List<Object>> rows) {
+		List<List<Object>> newer = pending.remove(id);
+		List<List<Object>> all = new ArrayList<>(rows);
+		if (newer != null)
+			all.addAll(newer);
+		pending.put(id, all);
+		pendingRows += rows.size();
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sends whatever is waiting to the old sheet before switching. Rows
+	 * that don't make it stay for the old sheet, they're sent to it later.
+	 * @param id
+	 */
+	public void setSpreadsheetId(String id) {
+		flushQuietly();
+		synchronized (this) {
+			if (id != null && !id.equals(spreadsheetId))
+				tabReady = false;
+			this.spreadsheetId = id;
+		}
+	}
+
+	private synchronized String spreadsheetId() {
+		return spreadsheetId;
+	}
+
+	private void append(String id, List<List<Object>> rows) throws IOException {
+		ensureTab(id);
+		backend.append(id, A1Notation.qualify(title, "A:D"), rows, ValueInputOption.RAW);
+	}
+
+	/**
+	 * Makes the log tab, with its header row, unless it's already there.
+	 * Only goes to the network the first time for each spreadsheet.
+	 * @param id
+	 * @throws IOException
+	 */
+	public synchronized void ensureTab(String id) throws IOException {
+		if (tabReady && id.equals(spreadsheetId))
+			return;
+		if (findTab(id, title) == null) {
+			try {
+				backend.addSheet(id, title);
+			} catch (IOException e) {
+				// another kiosk may have just made it
+				if (findTab(id, title) == null)
+					throw e;
+			}
+			List<List<Object>> header = new ArrayList<>(1);
+			header.add(HEADER);
+			backend.update(id, A1Notation.qualify(title, "A1:D1"), header, ValueInputOption.RAW);
+		}
+		tabReady = id.equals(spreadsheetId);
+	}
+
+	/**
+	 * Rebuilds the attendance grid from the log: "Email" and then the dates
+	 * across the top, one row per email, the time they signed in where they
+	 * meet. Emails and dates are in the order they first show up in the log,
+	 * a student who signed in twice on one date gets the later time (like
+	 * the grid, where the second sign in overwrites the first).
+	 *
+	 * <p>Reads the whole log, {@code SheetsVector.PAGE_SIZE} rows per call.
+	 * Rows still waiting to be flushed aren't in it.
+	 * @return the grid row by row, blanks are ""
+	 * @throws IOException
+	 */
+	public List<List<Object>> attendance() throws IOException {
+		String id = spreadsheetId();
+		ensureTab(id);
+
+		// email -> date -> time
+		Map<String, Map<String, Object>> times = new LinkedHashMap<>();
+		Map<String, Integer> columns = new LinkedHashMap<>();
+		for (int first = 2;; first += SheetsVector.PAGE_SIZE) {
+			String range = A1Notation.qualify(title,
+					"A" + first + ":D" + (first + SheetsVector.PAGE_SIZE - 1));
+			List<List<Object>> page = backend.get(id, range, Dimension.ROWS);
+			if (page == null)
+				break;
+			for (List<Object> row : page) {
+				if (row.size() < 3 || "".equals(row.get(0)))
+					continue; // a blank or half edited row
+				String email = row.get(0).toString().toLowerCase();
+				String date = row.get(1).toString();
+				columns.putIfAbsent(date, columns.size() + 1);
+				times.computeIfAbsent(email, (e) -> new LinkedHashMap<>()).put(date, row.get(2));
+			}
+			if (page.size() < SheetsVector.PAGE_SIZE)
+				break;
+		}
+
+		List<List<Object>> grid = new ArrayList<>(times.size() + 1);
+		List<Object> header = new ArrayList<>(columns.size() + 1);
+		header.add("Email");
+		header.addAll(columns.keySet());
+		grid.add(header);
+		for (Map.Entry<String, Map<String, Object>> e : times.entrySet()) {
+			List<Object> row = new ArrayList<>(header.size());
+			row.add(e.getKey());
+			while (row.size() < header.size()) {
+				row.add("");
+			}
+			for (Map.Entry<String, Object> time : e.getValue().entrySet()) {
+				row.set(columns.get(time.getKey()), time.getValue());
+			}
+			grid.add(row);
+		}
+		return grid;
+	}
+
+	/**
+	 * Rebuilds the grid (see {@code attendance()}) and writes it onto a tab
+	 * of its own, starting at A1, making the tab if it isn't there. New
+	 * emails and dates only ever go at the bottom and the right, so writing
+	 * over the last rebuild leaves nothing stale behind.
+	 * @param gridTitle
+	 * 		e.g. "Attendance", must not be the log's tab
+	 * @throws IOException
+	 */
+	public void writeAttendance(String gridTitle) throws IOException {
+		List<List<Object>> grid = attendance();
+		String id = spreadsheetId();
+
+		SheetProperties tab = findTab(id, gridTitle);
+		if (tab == null)
+			tab = backend.addSheet(id, gridTitle);
+
+		// writing outside the grid is an error, grow it first
+		GridProperties size = tab.getGridProperties();
+		int columns = grid.get(0).size();
+		if (size.getRowCount() < grid.size())
+			backend.appendDimension(id, tab.getSheetId(), Dimension.ROWS, grid.size() - size.getRowCount());
+		if (size.getColumnCount() < columns)
+			backend.appendDimension(id, tab.getSheetId(), Dimension.COLUMNS, columns - size.getColumnCount());
+
+		backend.update(id, A1Notation.qualify(gridTitle, "A1"), grid, ValueInputOption.RAW);
+	}
+
+	private SheetProperties findTab(String id, String tabTitle) throws IOException {
+		for (SheetProperties properties : backend.sheets(id)) {
+			if (tabTitle.equals(properties.getTitle()))
+				return properties;
+		}
+		return null;
+	}
+}
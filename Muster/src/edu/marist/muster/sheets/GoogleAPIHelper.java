@@ -10,7 +10,6 @@ import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInsta
 import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
@@ -18,6 +17,8 @@ import com.google.api.client.util.store.FileDataStoreFactory;
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.SheetsScopes;
 
+import edu.marist.muster.Preferences;
+
 public class GoogleAPIHelper {
 	
 	 /** Application name. */
@@ -45,28 +46,46 @@ public class GoogleAPIHelper {
     private static final List<String> SCOPES =
         Arrays.asList(SheetsScopes.SPREADSHEETS);
 
-    static {
-        try {
-            HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
+    /** The one signed in credential, shared by everything that talks to Google. */
+    private static Credential CREDENTIAL;
+
+    /** The one Sheets client, built on {@code CREDENTIAL}. */
+    private static Sheets SHEETS;
+
+    /** Keeps {@code CREDENTIAL}'s token fresh in the background. */
+    private static TokenRefresher REFRESHER;
+
+    /**
+     * Creates the transport and the credential store the first time they're
+     * needed. Used to be a static initializer that exited the whole program
+     * when it failed, which also took down anything that never needed Google
+     * (like the in-memory backend).
+     * @throws Exception if the transport or the store can't be created
+     */
+    private static synchronized void init() throws Exception {
+        if (HTTP_TRANSPORT == null)
+            HTTP_TRANSPORT = SheetsTransport.newTransport();
+        if (DATA_STORE_FACTORY == null)
             DATA_STORE_FACTORY = new FileDataStoreFactory(DATA_STORE_DIR);
-        } catch (Throwable t) {
-            t.printStackTrace();
-            System.exit(1);
-        }
     }
 
     /**
-     * Creates an authorized Credential object.
+     * Creates an authorized Credential object the first time, after that
+     * it's the same one. Its token is refreshed ahead of expiry in the
+     * background, see {@code TokenRefresher}.
      * @return an authorized Credential object.
      * @throws Exception 
      */
-    public static Credential authorize() throws Exception {
+    public static synchronized Credential authorize() throws Exception {
+        if (CREDENTIAL != null)
+            return CREDENTIAL;
+        init();
+
         // Load client secrets.
-        InputStream in =
-            GoogleAPIHelper.class.getResourceAsStream("client_secret.json");
-        System.out.println(in);
-        GoogleClientSecrets clientSecrets =
-            GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
+        GoogleClientSecrets clientSecrets;
+        try (InputStream in = GoogleAPIHelper.class.getResourceAsStream("client_secret.json")) {
+            clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
+        }
 
         // Build flow and trigger user authorization request.
         GoogleAuthorizationCodeFlow flow =
@@ -79,18 +98,36 @@ public class GoogleAPIHelper {
             flow, new LocalServerReceiver()).authorize("user");
         System.out.println(
                 "Credentials saved to " + DATA_STORE_DIR.getAbsolutePath());
+
+        REFRESHER = new TokenRefresher(credential, Preferences.getTokenRefreshMarginMillis());
+        REFRESHER.start();
+        CREDENTIAL = credential;
         return credential;
     }
 
     /**
-     * Build and return an authorized Sheets API client service.
+     * Build and return an authorized Sheets API client service, built once
+     * and shared after that. With {@code Preferences.getSheetsRootUrl()} set
+     * it talks to that instead of Google, without signing in.
      * @return an authorized Sheets API client service
      * @throws Exception 
      */
-    public static Sheets getSheetsService() throws Exception {
+    public static synchronized Sheets getSheetsService() throws Exception {
+        if (SHEETS != null)
+            return SHEETS;
+        String rootUrl = Preferences.getSheetsRootUrl();
+        if (rootUrl != null) {
+            init();
+            SHEETS = new Sheets.Builder(HTTP_TRANSPORT, JSON_FACTORY, SheetsTransport.initializer(null))
+                    .setApplicationName(APPLICATION_NAME)
+                    .setRootUrl(rootUrl)
+                    .build();
+            return SHEETS;
+        }
         Credential credential = authorize();
-        return new Sheets.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
+        SHEETS = new Sheets.Builder(HTTP_TRANSPORT, JSON_FACTORY, SheetsTransport.initializer(credential))
                 .setApplicationName(APPLICATION_NAME)
                 .build();
+        return SHEETS;
     }
 }
@@ -0,0 +1,166 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.AddSheetRequest;
+import com.google.api.services.sheets.v4.model.AppendDimensionRequest;
+import com.google.api.services.sheets.v4.model.AppendValuesResponse;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetResponse;
+import com.google.api.services.sheets.v4.model.BatchUpdateValuesRequest;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+/**
+ * {@code SheetsBackend} that talks to Google Sheets through the Sheets API
+ * client from {@code GoogleAPIHelper}.
+ *
+ * <p>Every call sets {@code fields} so Google only sends back what is
+ * actually used, e.g. just the values of a read and nothing of a write.
+ *
+ * <p>A read answered 400 is a range past the edge of the grid (Muster
+ * makes its ranges itself, so it isn't a typo), and is thrown as an
+ * {@code OutsideGridException}.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class GoogleSheetsBackend implements SheetsBackend {
+
+	/**
+	 * Access to Google Sheets API
+	 */
+	private final Sheets service;
+
+	/// the parts of each response that are used
+	private static final String GET_FIELDS = "values";
+
+	private static final String BATCH_GET_FIELDS = "valueRanges(range,values)";
+
+	private static final String APPEND_FIELDS = "updates/updatedRange";
+
+	private static final String SHEETS_FIELDS = "sheets.properties";
+
+	private static final String ADD_SHEET_FIELDS = "replies/addSheet/properties";
+
+	/// a write's response isn't used at all, but an empty mask isn't allowed
+	private static final String WRITE_FIELDS = "spreadsheetId";
+
+	public GoogleSheetsBackend(Sheets service) {
+		this.service = service;
+	}
+
+	@Override
+	public List<List<Object>> get(String spreadsheetId, String range, Dimension dimension) throws IOException {
+		try {
+			return service.spreadsheets().values()
+					.get(spreadsheetId, range)
+					.setMajorDimension(dimension.toString())
+					.setFields(GET_FIELDS)
+					.execute()
+					.getValues();
+		} catch (GoogleJsonResponseException e) {
+			throw outsideGrid(e, range);
+		}
+	}
+
+	@Override
+	public List<ValueRange> batchGet(String spreadsheetId, List<String> ranges, Dimension dimension)
+			throws IOException {
+		List<ValueRange> valueRanges;
+		try {
+			valueRanges = service.spreadsheets().values()
+					.batchGet(spreadsheetId)
+					.setRanges(ranges)
+					.setMajorDimension(dimension.toString())
+					.setFields(BATCH_GET_FIELDS)
+					.execute()
+					.getValueRanges();
+		} catch (GoogleJsonResponseException e) {
+			throw outsideGrid(e, String.join(",", ranges));
+		}
+		return valueRanges != null ? valueRanges : Collections.<ValueRange>emptyList();
+	}
+
+	/**
+	 * @return an {@code OutsideGridException} for a 400, otherwise {@code e} itself
+	 */
+	private static IOException outsideGrid(GoogleJsonResponseException e, String range) {
+		return e.getStatusCode() == 400 ? new OutsideGridException(range, e) : e;
+	}
+
+	@Override
+	public void update(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException {
+		service.spreadsheets().values()
+				.update(spreadsheetId, range, new ValueRange().setValues(values))
+				.setValueInputOption(option.toString())
+				.setFields(WRITE_FIELDS)
+				.execute();
+	}
+
+	@Override
+	public String append(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException {
+		AppendValuesResponse response = service.spreadsheets().values()
+				.append(spreadsheetId, range, new ValueRange().setValues(values))
+				.setValueInputOption(option.toString())
+				.setFields(APPEND_FIELDS)
+				.execute();
+		return response.getUpdates() != null ? response.getUpdates().getUpdatedRange() : null;
+	}
+
+	@Override
+	public void batchUpdate(String spreadsheetId, List<ValueRange> data, ValueInputOption option)
+			throws IOException {
+		BatchUpdateValuesRequest request = new BatchUpdateValuesRequest()
+				.setValueInputOption(option.toString())
+				.setData(data);
+		service.spreadsheets().values().batchUpdate(spreadsheetId, request)
+				.setFields(WRITE_FIELDS)
+				.execute();
+	}
+
+	@Override
+	public List<SheetProperties> sheets(String spreadsheetId) throws IOException {
+		return service.spreadsheets().get(spreadsheetId)
+				.setFields(SHEETS_FIELDS)
+				.execute()
+				.getSheets().stream()
+				.map(Sheet::getProperties)
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public void appendDimension(String spreadsheetId, int sheetId, Dimension dimension, int length)
+			throws IOException {
+		Request request = new Request().setAppendDimension(new AppendDimensionRequest()
+				.setSheetId(sheetId)
+				.setDimension(dimension.toString())
+				.setLength(length));
+		service.spreadsheets()
+				.batchUpdate(spreadsheetId, new BatchUpdateSpreadsheetRequest()
+						.setRequests(Collections.singletonList(request)))
+				.setFields(WRITE_FIELDS)
+				.execute();
+	}
+
+	@Override
+	public SheetProperties addSheet(String spreadsheetId, String title) throws IOException {
+		Request request = new Request().setAddSheet(new AddSheetRequest()
+				.setProperties(new SheetProperties().setTitle(title)));
+		BatchUpdateSpreadsheetResponse response = service.spreadsheets()
+				.batchUpdate(spreadsheetId, new BatchUpdateSpreadsheetRequest()
+						.setRequests(Collections.singletonList(request)))
+				.setFields(ADD_SHEET_FIELDS)
+				.execute();
+		return response.getReplies().get(0).getAddSheet().getProperties();
+	}
+}
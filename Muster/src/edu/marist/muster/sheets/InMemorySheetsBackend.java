@@ -0,0 +1,364 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+/**
+ * <p>{@code SheetsBackend} that keeps the spreadsheets in memory.
+ * 	<li>Every spreadsheet id works, a spreadsheet is made (with one empty
+ * 		tab, "Sheet1") the first time it's used.
+ * 	<li>Answers like Sheets does: trailing blanks are left off, an empty
+ * 		range comes back as {@code null}.
+ * 	<li>Can wait before every call to act like a network, see {@code setLatency()}.
+ * 	<li>Thread safe. The simulated latency is spent outside the lock, so
+ * 		calls from several threads overlap like they would over the network.
+ *
+ * <p>The grid size is tracked (for {@code sheets()} and
+ * {@code appendDimension()}) but not enforced, values can be written
+ * anywhere (and the grid takes in whatever was written). A read starting
+ * past the edge is an {@code OutsideGridException}, like Google's 400.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class InMemorySheetsBackend implements SheetsBackend {
+
+	/**
+	 * One tab: its properties and its cells, row by row.
+	 */
+	private static final class Tab {
+
+		private final SheetProperties properties;
+
+		private final List<List<Object>> rows = new ArrayList<>();
+
+		private Tab(int id, String title) {
+			properties = new SheetProperties()
+					.setSheetId(id)
+					.setTitle(title)
+					.setIndex(id)
+					.setGridProperties(new GridProperties().setRowCount(1000).setColumnCount(26));
+		}
+
+		private Object cell(int column, int row) {
+			if (row >= rows.size())
+				return "";
+			List<Object> r = rows.get(row);
+			return column < r.size() ? r.get(column) : "";
+		}
+
+		private void setCell(int column, int row, Object value) {
+			while (rows.size() <= row) {
+				rows.add(new ArrayList<>());
+			}
+			List<Object> r = rows.get(row);
+			while (r.size() <= column) {
+				r.add("");
+			}
+			r.set(column, value);
+		}
+
+		private int gridRows() {
+			return Math.max(properties.getGridProperties().getRowCount(), rows.size());
+		}
+
+		private int gridColumns() {
+			return Math.max(properties.getGridProperties().getColumnCount(), width());
+		}
+
+		private int width() {
+			int width = 0;
+			for (List<Object> r : rows) {
+				width = Math.max(width, r.size());
+			}
+			return width;
+		}
+	}
+
+	/**
+	 * Spreadsheet id -> its tabs, in order.
+	 */
+	private final Map<String, List<Tab>> spreadsheets = new HashMap<>();
+
+	private volatile long minLatencyMillis;
+
+	private volatile long maxLatencyMillis;
+
+	private final AtomicLong calls = new AtomicLong();
+
+	public InMemorySheetsBackend() {
+		this(0, 0);
+	}
+
+	/**
+	 * @param minLatencyMillis
+	 * @param maxLatencyMillis
+	 * @see #setLatency(long, long)
+	 */
+	public InMemorySheetsBackend(long minLatencyMillis, long maxLatencyMillis) {
+		setLatency(minLatencyMillis, maxLatencyMillis);
+	}
+
+	/**
+	 * Every call waits a random time between the two before it does anything.
+	 * @param minLatencyMillis
+	 * @param maxLatencyMillis
+	 */
+	public void setLatency(long minLatencyMillis, long maxLatencyMillis) {
+		this.minLatencyMillis = minLatencyMillis;
+		this.maxLatencyMillis = Math.max(minLatencyMillis, maxLatencyMillis);
+	}
+
+	/**
+	 * @return how many calls have been made, handy for counting round trips
+	 */
+	public long callCount() {
+		return calls.get();
+	}
+
+	@Override
+	public List<List<Object>> get(String spreadsheetId, String range, Dimension dimension) throws IOException {
+		call();
+		synchronized (this) {
+			return read(spreadsheetId, range, dimension);
+		}
+	}
+
+	@Override
+	public List<ValueRange> batchGet(String spreadsheetId, List<String> ranges, Dimension dimension)
+			throws IOException {
+		call();
+		synchronized (this) {
+			List<ValueRange> result = new ArrayList<>(ranges.size());
+			for (String range : ranges) {
+				result.add(new ValueRange()
+						.setRange(range)
+						.setMajorDimension(dimension.toString())
+						.setValues(read(spreadsheetId, range, dimension)));
+			}
+			return result;
+		}
+	}
+
+	@Override
+	public void update(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException {
+		call();
+		synchronized (this) {
+			write(spreadsheetId, range, values);
+		}
+	}
+
+	@Override
+	public String append(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException {
+		call();
+		synchronized (this) {
+			A1Notation.Range r = parse(range);
+			Tab tab = tab(spreadsheetId, r.getSheet());
+
+			// the "table" ends at the last row with anything in the range's columns
+			int lastColumn = r.getLastColumn() < 0 ? tab.width() - 1 : r.getLastColumn();
+			int next = r.getFirstRow() - 1;
+			for (int row = next; row < tab.rows.size(); row++) {
+				for (int col = r.getFirstColumn(); col <= lastColumn; col++) {
+					if (!"".equals(tab.cell(col, row))) {
+						next = row + 1;
+						break;
+					}
+				}
+			}
+
+			String start = A1Notation.cell(r.getFirstColumn(), next + 1);
+			write(tab, r.getFirstColumn(), next, values);
+			int width = 0;
+			for (List<Object> row : values) {
+				width = Math.max(width, row.size());
+			}
+			String end = A1Notation.cell(r.getFirstColumn() + Math.max(width, 1) - 1, next + values.size());
+			return tab.properties.getTitle() + "!" + start + ":" + end;
+		}
+	}
+
+	@Override
+	public void batchUpdate(String spreadsheetId, List<ValueRange> data, ValueInputOption option)
+			throws IOException {
+		call();
+		synchronized (this) {
+			for (ValueRange v : data) {
+				write(spreadsheetId, v.getRange(), v.getValues());
+			}
+		}
+	}
+
+	@Override
+	public List<SheetProperties> sheets(String spreadsheetId) throws IOException {
+		call();
+		synchronized (this) {
+			List<SheetProperties> properties = new ArrayList<>();
+			for (Tab tab : tabs(spreadsheetId)) {
+				properties.add(tab.properties.clone());
+			}
+			return properties;
+		}
+	}
+
+	@Override
+	public void appendDimension(String spreadsheetId, int sheetId, Dimension dimension, int length)
+			throws IOException {
+		call();
+		synchronized (this) {
+			for (Tab tab : tabs(spreadsheetId)) {
+				if (tab.properties.getSheetId() != sheetId)
+					continue;
+				GridProperties grid = tab.properties.getGridProperties();
+				if (dimension == Dimension.ROWS) {
+					grid.setRowCount(grid.getRowCount() + length);
+				} else {
+					grid.setColumnCount(grid.getColumnCount() + length);
+				}
+				return;
+			}
+			throw new IOException("No sheet with id " + sheetId);
+		}
+	}
+
+	@Override
+	public SheetProperties addSheet(String spreadsheetId, String title) throws IOException {
+		call();
+		synchronized (this) {
+			List<Tab> tabs = tabs(spreadsheetId);
+			int id = 0;
+			for (Tab tab : tabs) {
+				if (tab.properties.getTitle().equals(title))
+					throw new IOException("A sheet with the name \"" + title + "\" already exists.");
+				id = Math.max(id, tab.properties.getSheetId() + 1);
+			}
+			Tab tab = new Tab(id, title);
+			tab.properties.setIndex(tabs.size());
+			tabs.add(tab);
+			return tab.properties.clone();
+		}
+	}
+
+	/**
+	 * Counts the call and waits out the simulated latency.
+	 */
+	private void call() throws IOException {
+		calls.incrementAndGet();
+		long min = minLatencyMillis;
+		long max = maxLatencyMillis;
+		if (max <= 0)
+			return;
+		try {
+			Thread.sleep(min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private List<List<Object>> read(String spreadsheetId, String range, Dimension dimension) throws IOException {
+		A1Notation.Range r = parse(range);
+		Tab tab = tab(spreadsheetId, r.getSheet());
+		if (r.getFirstRow() > tab.gridRows() || r.getFirstColumn() >= tab.gridColumns())
+			throw new OutsideGridException(range);
+
+		int firstRow = r.getFirstRow() - 1;
+		int lastRow = r.getLastRow() < 0 ? tab.rows.size() - 1 : r.getLastRow() - 1;
+		int firstColumn = r.getFirstColumn();
+		int lastColumn = r.getLastColumn() < 0 ? tab.width() - 1 : r.getLastColumn();
+
+		List<List<Object>> values = new ArrayList<>();
+		if (dimension == Dimension.ROWS) {
+			for (int row = firstRow; row <= lastRow; row++) {
+				List<Object> line = new ArrayList<>();
+				for (int col = firstColumn; col <= lastColumn; col++) {
+					line.add(tab.cell(col, row));
+				}
+				values.add(trim(line));
+			}
+		} else {
+			for (int col = firstColumn; col <= lastColumn; col++) {
+				List<Object> line = new ArrayList<>();
+				for (int row = firstRow; row <= lastRow; row++) {
+					line.add(tab.cell(col, row));
+				}
+				values.add(trim(line));
+			}
+		}
+
+		// trailing empty rows (or columns) aren't sent either
+		while (!values.isEmpty() && values.get(values.size() - 1).isEmpty()) {
+			values.remove(values.size() - 1);
+		}
+		return values.isEmpty() ? null : values;
+	}
+
+	private void write(String spreadsheetId, String range, List<List<Object>> values) throws IOException {
+		A1Notation.Range r = parse(range);
+		write(tab(spreadsheetId, r.getSheet()), r.getFirstColumn(), r.getFirstRow() - 1, values);
+	}
+
+	private void write(Tab tab, int column, int row, List<List<Object>> values) {
+		if (values == null)
+			return;
+		for (int i = 0; i < values.size(); i++) {
+			List<Object> line = values.get(i);
+			for (int j = 0; j < line.size(); j++) {
+				// null means "leave this cell alone", like the API
+				if (line.get(j) != null)
+					tab.setCell(column + j, row + i, line.get(j).toString());
+			}
+		}
+	}
+
+	private List<Object> trim(List<Object> line) {
+		int end = line.size();
+		while (end > 0 && "".equals(line.get(end - 1))) {
+			end--;
+		}
+		return new ArrayList<>(line.subList(0, end));
+	}
+
+	private A1Notation.Range parse(String range) throws IOException {
+		try {
+			return A1Notation.parseRange(range);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unable to parse range: " + range, e);
+		}
+	}
+
+	private List<Tab> tabs(String spreadsheetId) {
+		return spreadsheets.computeIfAbsent(spreadsheetId, (id) -> {
+			List<Tab> tabs = new ArrayList<>();
+			tabs.add(new Tab(0, "Sheet1"));
+			return tabs;
+		});
+	}
+
+	/**
+	 * @param title
+	 * 		{@code null} for the first tab
+	 */
+	private Tab tab(String spreadsheetId, String title) throws IOException {
+		List<Tab> tabs = tabs(spreadsheetId);
+		if (title == null)
+			return tabs.get(0);
+		for (Tab tab : tabs) {
+			if (tab.properties.getTitle().equals(title))
+				return tab;
+		}
+		throw new IOException("Unable to parse range: no sheet named " + title);
+	}
+}
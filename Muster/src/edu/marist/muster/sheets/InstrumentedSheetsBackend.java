@@ -0,0 +1,100 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+import edu.marist.muster.metrics.SheetsMetrics;
+
+/**
+ * {@code SheetsBackend} that times every call to another backend and
+ * reports it to {@code SheetsMetrics}, under "api." and the method name
+ * (e.g. "api.get", "api.batchUpdate").
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class InstrumentedSheetsBackend implements SheetsBackend {
+
+	private final SheetsBackend backend;
+
+	private final SheetsMetrics metrics;
+
+	/**
+	 * @param backend
+	 * 		the backend that does the work
+	 * @param metrics
+	 */
+	public InstrumentedSheetsBackend(SheetsBackend backend, SheetsMetrics metrics) {
+		this.backend = backend;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public List<List<Object>> get(String spreadsheetId, String range, Dimension dimension) throws IOException {
+		return time("get", () -> backend.get(spreadsheetId, range, dimension));
+	}
+
+	@Override
+	public List<ValueRange> batchGet(String spreadsheetId, List<String> ranges, Dimension dimension)
+			throws IOException {
+		return time("batchGet", () -> backend.batchGet(spreadsheetId, ranges, dimension));
+	}
+
+	@Override
+	public void update(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException {
+		time("update", () -> {
+			backend.update(spreadsheetId, range, values, option);
+			return null;
+		});
+	}
+
+	@Override
+	public String append(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException {
+		return time("append", () -> backend.append(spreadsheetId, range, values, option));
+	}
+
+	@Override
+	public void batchUpdate(String spreadsheetId, List<ValueRange> data, ValueInputOption option)
+			throws IOException {
+		time("batchUpdate", () -> {
+			backend.batchUpdate(spreadsheetId, data, option);
+			return null;
+		});
+	}
+
+	@Override
+	public List<SheetProperties> sheets(String spreadsheetId) throws IOException {
+		return time("sheets", () -> backend.sheets(spreadsheetId));
+	}
+
+	@Override
+	public void appendDimension(String spreadsheetId, int sheetId, Dimension dimension, int length)
+			throws IOException {
+		time("appendDimension", () -> {
+			backend.appendDimension(spreadsheetId, sheetId, dimension, length);
+			return null;
+		});
+	}
+
+	@Override
+	public SheetProperties addSheet(String spreadsheetId, String title) throws IOException {
+		return time("addSheet", () -> backend.addSheet(spreadsheetId, title));
+	}
+
+	private <T> T time(String method, SheetsMetrics.Call<T, IOException> call) throws IOException {
+		long start = System.nanoTime();
+		boolean succeeded = false;
+		try {
+			T result = call.call();
+			succeeded = true;
+			return result;
+		} finally {
+			metrics.apiCall(method, System.nanoTime() - start, succeeded);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package edu.marist.muster.sheets;
+
+import com.google.api.client.http.HttpResponseException;
+
+/**
+ * How a {@code SheetsHelper.mark()} went, so whoever retries it (the
+ * {@code JournalReplayer}) can tell an outage from a sign in the sheet
+ * will never take.
+ * 
+ *  <li>{@code MARKED} is on the sheet (or queued for it, or already was).
+ *  <li>{@code FAILED} didn't make it for now: no network, a timeout, a 5xx,
+ *  	a 429 that outlasted the retries. Worth trying again, for as long as
+ *  	it takes.
+ *  <li>{@code REJECTED} was turned down: a 4xx other than 408 or 429, or a
+ *  	sign in that makes no sense (no email). Trying again gets the same
+ *  	answer.
+ * 
+ * @author Tom Magnusson
+ *
+ */
+public enum MarkResult {
+	MARKED, FAILED, REJECTED;
+
+	/**
+	 * @param e
+	 * 		what a mark threw
+	 * @return {@code REJECTED} if the sheet (or anywhere along the causes)
+	 * 		said no for good, {@code FAILED} otherwise
+	 */
+	public static MarkResult of(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof HttpResponseException) {
+				int status = ((HttpResponseException) t).getStatusCode();
+				return status >= 400 && status < 500 && status != 408 && status != 429 ? REJECTED : FAILED;
+			}
+			if (t instanceof OutsideGridException)
+				return FAILED; // the model was out of date, the next load fixes it
+			if (t instanceof IllegalArgumentException)
+				return REJECTED;
+		}
+		return FAILED;
+	}
+}
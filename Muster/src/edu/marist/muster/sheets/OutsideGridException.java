@@ -0,0 +1,25 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@code SheetsBackend} read whose range starts past the edge
+ * of the tab's grid (Google answers those with a 400 rather than nothing).
+ * Callers reading "everything after row n" can take it to mean there's
+ * nothing there.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class OutsideGridException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public OutsideGridException(String range) {
+		super("Range " + range + " is outside the grid.");
+	}
+
+	public OutsideGridException(String range, Throwable cause) {
+		super("Range " + range + " is outside the grid.", cause);
+	}
+}
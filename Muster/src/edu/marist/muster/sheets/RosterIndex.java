@@ -0,0 +1,280 @@
+package edu.marist.muster.sheets;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>The roster (column A) arranged for the email field, so a typo is
+ * caught before it turns into a new row on the sheet.
+ * 	<li>{@code complete()}: emails starting with what's been typed so far.
+ * 	<li>{@code nearest()}: emails a typo or two away ("jonh.smith1" finds
+ * 		"john.smith1").
+ * 	<li>{@code contains()}: a hash lookup.
+ *
+ * <p>Both searches run over the roster sorted alphabetically, which is a
+ * prefix trie laid out flat: emails sharing a prefix sit next to each other.
+ * {@code complete()} binary searches to the prefix. {@code nearest()} walks
+ * the emails in order computing the edit distance a letter at a time, so a
+ * prefix shared with the previous email isn't computed again, and once a
+ * prefix is already too far off every email starting with it is skipped.
+ *
+ * <p>Emails are kept lower case, like {@code SheetsHelper.mark()} writes them.
+ * Thread safe: {@code SheetModel} adds emails from the sign in workers while
+ * the UI thread asks.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class RosterIndex {
+
+	private Set<String> emails = new HashSet<>();
+
+	/**
+	 * The emails in alphabetical order.
+	 */
+	private List<String> sorted = new ArrayList<>();
+
+	/**
+	 * The length of the longest email.
+	 */
+	private int longest;
+
+	/**
+	 * Replaces the whole index. The new one is built before the lock is
+	 * taken, so lookups aren't held up by it.
+	 * @param emails
+	 * 		{@code null}s (blank cells) are skipped
+	 */
+	public void reset(Collection<String> emails) {
+		Set<String> unique = new HashSet<>(emails.size() * 2);
+		int longest = 0;
+		for (String email : emails) {
+			if (email == null)
+				continue;
+			email = email.toLowerCase();
+			unique.add(email);
+			longest = Math.max(longest, email.length());
+		}
+		List<String> sorted = new ArrayList<>(unique);
+		Collections.sort(sorted);
+
+		synchronized (this) {
+			this.emails = unique;
+			this.sorted = sorted;
+			this.longest = longest;
+		}
+	}
+
+	/**
+	 * Forgets every email.
+	 */
+	public void clear() {
+		reset(Collections.<String>emptyList());
+	}
+
+	/**
+	 * @param email
+	 * 		{@code null} is ignored
+	 */
+	public synchronized void add(String email) {
+		if (email == null)
+			return;
+		email = email.toLowerCase();
+		if (!emails.add(email))
+			return;
+		sorted.add(-Collections.binarySearch(sorted, email) - 1, email);
+		longest = Math.max(longest, email.length());
+	}
+
+	/**
+	 * @param emails
+	 * 		{@code null}s (blank cells) are skipped
+	 */
+	public void addAll(Collection<String> emails) {
+		for (String email : emails) {
+			add(email);
+		}
+	}
+
+	public synchronized int size() {
+		return emails.size();
+	}
+
+	/**
+	 * @param email
+	 * @return {@code true} if the email is on the roster (in any case)
+	 */
+	public synchronized boolean contains(String email) {
+		return emails.contains(email.toLowerCase());
+	}
+
+	/**
+	 * @param prefix
+	 * 		what's been typed so far, in any case
+	 * @param max
+	 * 		how many to return at most
+	 * @return the emails starting with {@code prefix}, in alphabetical order
+	 */
+	public synchronized List<String> complete(String prefix, int max) {
+		prefix = prefix.toLowerCase();
+		List<String> matches = new ArrayList<>(Math.min(max, 16));
+		for (int i = firstStartingWith(prefix); i < sorted.size() && matches.size() < max; i++) {
+			if (!sorted.get(i).startsWith(prefix))
+				break;
+			matches.add(sorted.get(i));
+		}
+		return matches;
+	}
+
+	/**
+	 * @param email
+	 * 		in any case
+	 * @param maxDistance
+	 * 		how many edits (a letter added, dropped or changed) away at most
+	 * @param max
+	 * 		how many to return at most
+	 * @return the closest emails, closest first, not including {@code email}
+	 * 		itself
+	 */
+	public synchronized List<String> nearest(String email, int maxDistance, int max) {
+		email = email.toLowerCase();
+		int m = email.length();
+
+		List<List<String>> byDistance = new ArrayList<>(maxDistance + 1);
+		for (int d = 0; d <= maxDistance; d++) {
+			byDistance.add(new ArrayList<>());
+		}
+
+		// rows[j] is the edit distance row for the first j letters of the
+		// email being looked at, rows[0] is the same for every email
+		int[][] rows = new int[longest + 1][m + 1];
+		for (int k = 0; k <= m; k++) {
+			rows[0][k] = Math.min(k, maxDistance + 1);
+		}
+		String previous = "";
+		int valid = 0; // rows[0..valid] belong to previous
+
+		int i = 0;
+		while (i < sorted.size()) {
+			String candidate = sorted.get(i);
+			int j = Math.min(commonPrefix(previous, candidate), valid);
+			boolean tooFar = false;
+			while (j < candidate.length()) {
+				j++;
+				if (row(rows[j - 1], rows[j], j, email, candidate.charAt(j - 1), maxDistance) > maxDistance) {
+					tooFar = true;
+					break;
+				}
+			}
+			previous = candidate;
+			valid = j;
+
+			if (tooFar) {
+				// nothing starting with these letters can get any closer
+				i = skip(i, candidate, j);
+				valid = j - 1;
+				continue;
+			}
+			// the last cell is only filled in if the lengths are close enough
+			int d = Math.abs(j - m) <= maxDistance ? rows[j][m] : maxDistance + 1;
+			if (d > 0 && d <= maxDistance)
+				byDistance.get(d).add(candidate);
+			i++;
+		}
+
+		List<String> nearest = new ArrayList<>(max);
+		for (List<String> emails : byDistance) {
+			// already alphabetical, the roster is walked in order
+			for (String e : emails) {
+				if (nearest.size() == max)
+					return nearest;
+				nearest.add(e);
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Fills in row {@code j} of the edit distance table, letter {@code j} of
+	 * the candidate against the email. Only the cells within {@code limit}
+	 * of the diagonal are worked out, anything further off is more than
+	 * {@code limit} edits anyway, and every value is capped at {@code limit + 1}.
+	 * @return the smallest value in the row, nothing below it can do better
+	 */
+	private static int row(int[] above, int[] row, int j, String email, char c, int limit) {
+		int over = limit + 1;
+		int m = row.length - 1;
+		int lo = Math.max(1, j - limit);
+		int hi = Math.min(m, j + limit);
+
+		row[0] = Math.min(j, over);
+		if (lo > 1)
+			row[lo - 1] = over;
+		int best = row[0];
+		for (int k = lo; k <= hi; k++) {
+			int cost = email.charAt(k - 1) == c ? 0 : 1;
+			int v = Math.min(Math.min(row[k - 1] + 1, above[k] + 1), above[k - 1] + cost);
+			row[k] = Math.min(v, over);
+			best = Math.min(best, row[k]);
+		}
+		// the next row reads one cell past the band
+		if (hi < m)
+			row[hi + 1] = over;
+		return best;
+	}
+
+	private static int commonPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Gallops forward, most prefixes that get skipped only have a few
+	 * emails under them.
+	 * @param from
+	 * 		an email starting with the prefix
+	 * @param prefix
+	 * @param length
+	 * 		how much of {@code prefix} to go by
+	 * @return the index of the first email after {@code from} not starting
+	 * 		with the first {@code length} letters of {@code prefix}
+	 */
+	private int skip(int from, String prefix, int length) {
+		int step = 1;
+		int last = from; // known to start with the prefix
+		int next = from + 1;
+		while (next < sorted.size() && sorted.get(next).regionMatches(0, prefix, 0, length)) {
+			last = next;
+			step *= 2;
+			next = from + step;
+		}
+		// the answer is in (last, min(next, size)], binary search it
+		int lo = last + 1;
+		int hi = Math.min(next, sorted.size());
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted.get(mid).regionMatches(0, prefix, 0, length)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the index of the first email not before {@code prefix}
+	 */
+	private int firstStartingWith(String prefix) {
+		int at = Collections.binarySearch(sorted, prefix);
+		return at < 0 ? -at - 1 : at;
+	}
+}
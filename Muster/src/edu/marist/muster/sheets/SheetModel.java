@@ -0,0 +1,494 @@
+package edu.marist.muster.sheets;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory picture of the attendance sheet, so {@code SheetsHelper.mark()}
+ * doesn't have to ask the network where things are on every sign in.
+ *
+ * <p>Keeps track of:
+ * 	<li>whether the "Email" header is in A1
+ * 	<li>email -> sheet row number (e.g. "A<strong>3</strong>" is 3)
+ * 	<li>date -> column index (0 is "A")
+ * 	<li>the header row itself, so the next date column is known
+ * 	<li>which rows have been marked today, so a repeat sign in doesn't
+ * 		need the network
+ *
+ * <p>All methods are synchronized, the model is shared by whoever is marking.
+ * New emails and dates are reserved in the model <em>before</em> they're
+ * written, so two sign ins at once never pick the same row or column.
+ * Nothing is reserved while the model isn't loaded, an empty model would
+ * hand out row 2 and column B whatever is really there. Nor while it's
+ * only a snapshot from the last run, rows and dates added to the sheet
+ * since would be handed out again.
+ *
+ * <p>Reservations outlive a reload: one the sheet doesn't show yet (still
+ * being written, or held by write-behind) is put back into the model
+ * instead of its row or column going to someone else.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class SheetModel {
+
+	/**
+	 * What {@code addEmail()} and {@code addDate()} answer when the model
+	 * isn't loaded (or was invalidated since the caller looked). Load it
+	 * and ask again.
+	 */
+	public static final int NOT_LOADED = -2;
+
+	/**
+	 * Whether the model has been filled from the sheet yet.
+	 */
+	private boolean loaded;
+
+	/**
+	 * Loaded from a snapshot that hasn't been checked against the sheet yet,
+	 * good for looking up but not for reserving.
+	 */
+	private boolean fromSnapshot;
+
+	/**
+	 * {@code true} if A1 reads "Email".
+	 */
+	private boolean emailHeaderPresent;
+
+	/**
+	 * Email -> sheet row number (1 based, the first email is row 2).
+	 */
+	private final Map<String, Integer> rowsByEmail = new HashMap<>();
+
+	/**
+	 * The email column in row order, starting at A2.
+	 */
+	private final List<String> emails = new ArrayList<>();
+
+	/**
+	 * The header row, "Email" followed by the dates, in column order.
+	 */
+	private final List<String> headers = new ArrayList<>();
+
+	/**
+	 * Date string (formatted with {@code Preferences.DATE_FORMAT}) -> column index.
+	 */
+	private final Map<String, Integer> columnsByDate = new HashMap<>();
+
+	/**
+	 * The last row used by the email column, 1 when there are no emails
+	 * (only the header).
+	 */
+	private int lastRow = 1;
+
+	/**
+	 * The day {@code marked} is for, {@code null} before the first mark.
+	 */
+	private LocalDate markedDate;
+
+	/**
+	 * Sheet row numbers marked on {@code markedDate}: by this kiosk, and
+	 * whatever was on the sheet the last time the date's column was read
+	 * (see {@code markedFrom()}). One bit per roster row, cheap enough to
+	 * ask on every keystroke.
+	 */
+	private final BitSet marked = new BitSet();
+
+	/**
+	 * The emails again, for the type-ahead and typo checks on the email field.
+	 */
+	private final RosterIndex roster = new RosterIndex();
+
+	/**
+	 * Rows and columns handed out by {@code addEmail()} and {@code addDate()}
+	 * that no load of the sheet has shown yet.
+	 */
+	private final Map<String, Integer> reservedRows = new HashMap<>();
+
+	private final Map<String, Integer> reservedColumns = new HashMap<>();
+
+	/**
+	 * Replaces the whole model with what was read from the sheet, plus
+	 * any reservations it doesn't show yet.
+	 *
+	 * @param emailHeaderPresent
+	 * 		whether A1 is "Email"
+	 * @param emails
+	 * 		the email column, starting at A2, {@code null} for blanks
+	 * @param headerRow
+	 * 		the whole first row, starting at A1, {@code null} for blanks
+	 */
+	public synchronized void load(boolean emailHeaderPresent, List<String> emails, List<String> headerRow) {
+		clear();
+		this.emailHeaderPresent = emailHeaderPresent;
+		for (int i = 0; i < emails.size(); i++) {
+			// blank cells (null) still take up a row
+			if (emails.get(i) != null)
+				rowsByEmail.putIfAbsent(emails.get(i), i + 2);
+		}
+		this.emails.addAll(emails);
+		lastRow = emails.size() + 1;
+		roster.reset(emails);
+
+		headers.addAll(headerRow);
+		for (int i = 1; i < headers.size(); i++) {
+			if (headers.get(i) != null)
+				columnsByDate.putIfAbsent(headers.get(i), i);
+		}
+		carryOverReservations();
+		loaded = true;
+	}
+
+	/**
+	 * Replaces the whole model with a snapshot saved by an earlier run,
+	 * marks and all. Nothing can be reserved until {@code reconciled()}
+	 * (or a load from the sheet), and the marks only answer
+	 * {@code isMarked()}, not {@code isMarkedOnSheet()}.
+	 * @param snapshot
+	 */
+	public synchronized void load(SheetSnapshot snapshot) {
+		load(snapshot.isEmailHeaderPresent(), snapshot.getEmails(), snapshot.getHeaders());
+		fromSnapshot = true;
+		LocalDate date = snapshot.getMarkedDate();
+		if (date != null)
+			snapshot.getMarked().stream().forEach((row) -> marked(date, row));
+	}
+
+	/**
+	 * The snapshot the model was loaded from has been caught up with the
+	 * sheet, rows and columns can be reserved again. Its marks are dropped,
+	 * the caller reads them back from the sheet (see {@code markedFrom()}).
+	 */
+	public synchronized void reconciled() {
+		fromSnapshot = false;
+		marked.clear();
+	}
+
+	/**
+	 * @return everything the model knows, to be saved for the next run
+	 */
+	public synchronized SheetSnapshot snapshot() {
+		return new SheetSnapshot(emailHeaderPresent, emails, headers, markedDate, marked);
+	}
+
+	/**
+	 * Forgets everything, the next sign in reloads from the sheet.
+	 * Used when a write fails and the model may no longer match the sheet.
+	 * Reservations are kept, see {@code load()}.
+	 */
+	public synchronized void invalidate() {
+		clear();
+	}
+
+	/**
+	 * Forgets everything, reservations too. For moving to another sheet or
+	 * tab, where the rows and columns mean something else.
+	 */
+	public synchronized void forget() {
+		clear();
+		reservedRows.clear();
+		reservedColumns.clear();
+	}
+
+	private void clear() {
+		loaded = false;
+		fromSnapshot = false;
+		emailHeaderPresent = false;
+		rowsByEmail.clear();
+		emails.clear();
+		headers.clear();
+		columnsByDate.clear();
+		lastRow = 1;
+		// rows may have moved, better to write a sign in twice than to skip one
+		marked.clear();
+		roster.clear();
+	}
+
+	/**
+	 * Puts back the reservations the sheet doesn't show yet. One the sheet
+	 * shows is done with, one whose cell has something else in it now (the
+	 * sheet was edited meanwhile) is dropped.
+	 */
+	private void carryOverReservations() {
+		Iterator<Map.Entry<String, Integer>> rows = reservedRows.entrySet().iterator();
+		while (rows.hasNext()) {
+			Map.Entry<String, Integer> reserved = rows.next();
+			String email = reserved.getKey();
+			int index = reserved.getValue() - 2;
+			String there = index < emails.size() ? emails.get(index) : null;
+			if (there != null) {
+				rows.remove();
+				continue;
+			}
+			while (emails.size() <= index) {
+				emails.add(null);
+			}
+			emails.set(index, email);
+			if (rowsByEmail.putIfAbsent(email, index + 2) == null)
+				roster.add(email);
+			lastRow = Math.max(lastRow, index + 2);
+		}
+
+		Iterator<Map.Entry<String, Integer>> columns = reservedColumns.entrySet().iterator();
+		while (columns.hasNext()) {
+			Map.Entry<String, Integer> reserved = columns.next();
+			String date = reserved.getKey();
+			int column = reserved.getValue();
+			String there = column < headers.size() ? headers.get(column) : null;
+			if (there != null) {
+				columns.remove();
+				continue;
+			}
+			while (headers.size() <= column) {
+				headers.add(null);
+			}
+			headers.set(column, date);
+			columnsByDate.putIfAbsent(date, column);
+		}
+	}
+
+	/**
+	 * @param date
+	 * @param row
+	 * 		the sheet row number
+	 * @return {@code true} if the row was marked on that date
+	 */
+	public synchronized boolean isMarked(LocalDate date, int row) {
+		return row > 0 && date.equals(markedDate) && marked.get(row);
+	}
+
+	/**
+	 * {@code isMarked()}, but only for marks known to be on the sheet. A
+	 * snapshot's marks aren't until it's reconciled: one may be of a write
+	 * that was still held by write-behind when the last run stopped, better
+	 * to write a sign in twice than to skip it.
+	 * @param date
+	 * @param row
+	 * 		the sheet row number
+	 * @return {@code true} if the row was marked on that date
+	 */
+	public synchronized boolean isMarkedOnSheet(LocalDate date, int row) {
+		return !fromSnapshot && isMarked(date, row);
+	}
+
+	/**
+	 * @param email
+	 * @param date
+	 * @return {@code true} if the email is on the sheet and was marked on that date
+	 */
+	public synchronized boolean isMarked(String email, LocalDate date) {
+		return isMarked(date, rowForEmail(email));
+	}
+
+	/**
+	 * Remembers that a row was marked. A later date than the one being
+	 * kept starts over (the day rolled over), an earlier one (a sign in
+	 * replayed from the journal) is left out.
+	 * @param date
+	 * @param row
+	 * 		the sheet row number
+	 */
+	public synchronized void marked(LocalDate date, int row) {
+		if (markedDate == null || date.isAfter(markedDate)) {
+			markedDate = date;
+			marked.clear();
+		}
+		if (date.equals(markedDate))
+			marked.set(row);
+	}
+
+	/**
+	 * Remembers every row with a time in a date's column, as read from the
+	 * sheet, so sign ins from before a restart (or from another kiosk)
+	 * count as marked too. Ignored if the model isn't loaded, the rows
+	 * might not be the ones the column was read for.
+	 * @param date
+	 * @param column
+	 * 		the date's column from row 2 down, blanks are "" (or {@code null})
+	 */
+	public synchronized void markedFrom(LocalDate date, List<Object> column) {
+		if (!loaded)
+			return;
+		for (int i = 0; i < column.size(); i++) {
+			Object time = column.get(i);
+			if (time != null && !"".equals(time))
+				marked(date, i + 2);
+		}
+	}
+
+	/**
+	 * @return the emails in the model, kept up to date as it changes
+	 */
+	public RosterIndex roster() {
+		return roster;
+	}
+
+	public synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @return {@code true} if the model is a snapshot that hasn't been
+	 * 		caught up with the sheet yet
+	 */
+	public synchronized boolean isFromSnapshot() {
+		return fromSnapshot;
+	}
+
+	public synchronized boolean isEmailHeaderPresent() {
+		return emailHeaderPresent;
+	}
+
+	/**
+	 * Claims writing "Email" into A1, so two sign ins don't both write it.
+	 * @return {@code true} if the caller should write the header,
+	 * 		{@code false} if it's there (or someone else is writing it)
+	 */
+	public synchronized boolean claimEmailHeader() {
+		if (emailHeaderPresent)
+			return false;
+		emailHeaderPresent = true;
+		if (headers.isEmpty()) {
+			headers.add("Email");
+		} else {
+			headers.set(0, "Email");
+		}
+		return true;
+	}
+
+	/**
+	 * @param email
+	 * @return the sheet row number of the email, or {@code -1} if it isn't there
+	 */
+	public synchronized int rowForEmail(String email) {
+		return rowsByEmail.getOrDefault(email, -1);
+	}
+
+	/**
+	 * Reserves the row after the last email for a new email. The caller
+	 * writes it, and {@code releaseEmail()}s and {@code invalidate()}s the
+	 * model if that fails.
+	 * @param email
+	 * @return the reserved row, {@code -1} if the email already has one
+	 * 		(another sign in added it first), or {@code NOT_LOADED} (also
+	 * 		while the model is only a snapshot)
+	 */
+	public synchronized int addEmail(String email) {
+		if (!loaded || fromSnapshot)
+			return NOT_LOADED;
+		if (rowsByEmail.containsKey(email))
+			return -1;
+		lastRow++;
+		reservedRows.put(email, lastRow);
+		rowsByEmail.put(email, lastRow);
+		emails.add(email);
+		roster.add(email);
+		return lastRow;
+	}
+
+	/**
+	 * Adds emails someone else put on the sheet (a TA, or another kiosk).
+	 * Rows the model already knows about are left alone.
+	 * @param firstRow
+	 * 		the sheet row of the first email
+	 * @param synced
+	 * 		the emails from {@code firstRow} down
+	 * @return how many emails were new to the model
+	 */
+	public synchronized int emailsSynced(int firstRow, List<String> synced) {
+		int added = 0;
+		for (int i = 0; i < synced.size(); i++) {
+			int row = firstRow + i;
+			if (row <= lastRow)
+				continue;
+			String email = synced.get(i);
+			if (email != null)
+				rowsByEmail.putIfAbsent(email, row);
+			emails.add(email);
+			roster.add(email);
+			lastRow = row;
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * Adds dates someone else put in the header row. Columns the model
+	 * already knows about are left alone.
+	 * @param firstColumn
+	 * 		the column index of the first date
+	 * @param synced
+	 * 		the header row from {@code firstColumn} on
+	 * @return how many dates were new to the model
+	 */
+	public synchronized int datesSynced(int firstColumn, List<String> synced) {
+		int added = 0;
+		for (int i = 0; i < synced.size(); i++) {
+			int column = firstColumn + i;
+			if (column < headers.size())
+				continue;
+			String date = synced.get(i);
+			if (date != null && column > 0)
+				columnsByDate.putIfAbsent(date, column);
+			headers.add(date);
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * @param date
+	 * 		formatted with {@code Preferences.DATE_FORMAT}
+	 * @return the column index of the date, or {@code -1} if it isn't there
+	 */
+	public synchronized int columnForDate(String date) {
+		return columnsByDate.getOrDefault(date, -1);
+	}
+
+	/**
+	 * Reserves the column after the last header for a new date. The caller
+	 * writes it, and {@code releaseDate()}s and {@code invalidate()}s the
+	 * model if that fails.
+	 * @param date
+	 * 		formatted with {@code Preferences.DATE_FORMAT}
+	 * @return the reserved column index, {@code -1} if the date already
+	 * 		has one (another sign in added it first), or {@code NOT_LOADED}
+	 * 		(also while the model is only a snapshot)
+	 */
+	public synchronized int addDate(String date) {
+		if (!loaded || fromSnapshot)
+			return NOT_LOADED;
+		if (columnsByDate.containsKey(date))
+			return -1;
+		// "Email" always takes up A, even if it hasn't been written yet
+		if (headers.isEmpty())
+			headers.add(null);
+		int column = headers.size();
+		headers.add(date);
+		columnsByDate.put(date, column);
+		reservedColumns.put(date, column);
+		return column;
+	}
+
+	/**
+	 * Gives up a reserved row whose write failed, the next reload doesn't
+	 * keep it (unless the write made it after all).
+	 * @param email
+	 */
+	public synchronized void releaseEmail(String email) {
+		reservedRows.remove(email);
+	}
+
+	/**
+	 * Gives up a reserved column whose write failed.
+	 * @param date
+	 */
+	public synchronized void releaseDate(String date) {
+		reservedColumns.remove(date);
+	}
+}
@@ -0,0 +1,286 @@
+package edu.marist.muster.sheets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>What {@code SheetModel} knew about a spreadsheet, saved to disk so the
+ * next start doesn't have to download the header and the roster before the
+ * first sign in.
+ * 	<li>One file per spreadsheet id, read with a memory mapped buffer.
+ * 	<li>Written to a temp file and swapped in, a crash leaves the old
+ * 		snapshot or the new one, never half of one.
+ * 	<li>Checksummed, a snapshot that doesn't check out is ignored (the
+ * 		sheet is read like there was no snapshot).
+ * 	<li>Only a starting point: {@code SheetsHelper} still reads the sheet
+ * 		in the background and fixes up the model if it changed.
+ *
+ * <p>File layout: {@code int magic, int version, int crc32, payload}. The
+ * payload is the "Email" header flag, then the email column and the header
+ * row, each as an {@code int} count followed by the strings (an {@code int}
+ * byte length, -1 for a blank cell, then UTF-8). Then the cells the model
+ * knows are marked: the day as a {@code long} epoch day ({@code Long.MIN_VALUE}
+ * for none), and the marked rows as an {@code int} count of {@code long}s
+ * (a {@code BitSet}). Version 1 files have no marks, they load without any.
+ *
+ * <p>Immutable.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class SheetSnapshot {
+
+	/// "MSNP"
+	private static final int MAGIC = 0x4d534e50;
+
+	private static final int VERSION = 2;
+
+	/// magic + version + crc
+	private static final int HEADER_BYTES = 12;
+
+	private static final String SUFFIX = ".snapshot";
+
+	private final boolean emailHeaderPresent;
+
+	private final List<String> emails;
+
+	private final List<String> headers;
+
+	private final LocalDate markedDate;
+
+	private final BitSet marked;
+
+	/**
+	 * A snapshot with nothing marked.
+	 * @param emailHeaderPresent
+	 * @param emails
+	 * @param headers
+	 */
+	public SheetSnapshot(boolean emailHeaderPresent, List<String> emails, List<String> headers) {
+		this(emailHeaderPresent, emails, headers, null, new BitSet());
+	}
+
+	/**
+	 * @param emailHeaderPresent
+	 * 		whether A1 is "Email"
+	 * @param emails
+	 * 		the email column, starting at A2, {@code null} for blanks
+	 * @param headers
+	 * 		the whole first row, starting at A1, {@code null} for blanks
+	 * @param markedDate
+	 * 		the day {@code marked} is for, {@code null} if none
+	 * @param marked
+	 * 		sheet row numbers with a time on {@code markedDate}
+	 */
+	public SheetSnapshot(boolean emailHeaderPresent, List<String> emails, List<String> headers,
+			LocalDate markedDate, BitSet marked) {
+		this.emailHeaderPresent = emailHeaderPresent;
+		this.emails = Collections.unmodifiableList(new ArrayList<>(emails));
+		this.headers = Collections.unmodifiableList(new ArrayList<>(headers));
+		this.markedDate = markedDate;
+		this.marked = (BitSet) marked.clone();
+	}
+
+	public boolean isEmailHeaderPresent() {
+		return emailHeaderPresent;
+	}
+
+	public List<String> getEmails() {
+		return emails;
+	}
+
+	public List<String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return the day {@code getMarked()} is for, {@code null} if nothing is marked
+	 */
+	public LocalDate getMarkedDate() {
+		return markedDate;
+	}
+
+	/**
+	 * @return a copy of the sheet row numbers marked on {@code getMarkedDate()}
+	 */
+	public BitSet getMarked() {
+		return (BitSet) marked.clone();
+	}
+
+	/**
+	 * Whether the sheet still starts with everything in the snapshot, so it
+	 * can be caught up by adding whatever came after instead of reloading.
+	 * @param emailColumn
+	 * 		the email column as it is on the sheet now
+	 * @param headerRow
+	 * 		the header row as it is on the sheet now
+	 * @return {@code true} if the snapshot is the start of both
+	 */
+	public boolean isPrefixOf(List<String> emailColumn, List<String> headerRow) {
+		return startsWith(emailColumn, emails) && startsWith(headerRow, headers);
+	}
+
+	private static boolean startsWith(List<String> list, List<String> prefix) {
+		return list.size() >= prefix.size() && list.subList(0, prefix.size()).equals(prefix);
+	}
+
+	/**
+	 * @param directory
+	 * @param spreadsheetId
+	 * @return the saved snapshot of the spreadsheet, {@code null} if there
+	 * 		isn't one (or it's damaged)
+	 * @throws IOException
+	 * 		if there is a snapshot but it can't be read
+	 */
+	public static SheetSnapshot load(Path directory, String spreadsheetId) throws IOException {
+		Path path = path(directory, spreadsheetId);
+		if (!Files.exists(path))
+			return null;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE)
+				return null;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC)
+				return null;
+			int version = buffer.getInt();
+			if (version < 1 || version > VERSION)
+				return null;
+			int expectedCrc = buffer.getInt();
+
+			CRC32 crc = new CRC32();
+			crc.update(buffer.duplicate());
+			if ((int) crc.getValue() != expectedCrc) {
+				System.err.println("Snapshot: bad checksum in " + path + ", ignoring it");
+				return null;
+			}
+
+			boolean emailHeaderPresent = buffer.get() != 0;
+			List<String> emails = readStrings(buffer);
+			List<String> headers = readStrings(buffer);
+			if (version < 2)
+				return new SheetSnapshot(emailHeaderPresent, emails, headers);
+			long epochDay = buffer.getLong();
+			LocalDate markedDate = epochDay == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(epochDay);
+			return new SheetSnapshot(emailHeaderPresent, emails, headers, markedDate, readBits(buffer));
+		} catch (BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+			// the checksum matched but the contents don't add up, written by something else
+			System.err.println("Snapshot: " + path + " is not a snapshot, ignoring it");
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the snapshot for the spreadsheet, replacing the old one.
+	 * @param directory
+	 * 		made if it isn't there
+	 * @param spreadsheetId
+	 * @throws IOException
+	 */
+	public void save(Path directory, String spreadsheetId) throws IOException {
+		byte[] payload = encode();
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(payload);
+		buffer.flip();
+
+		Files.createDirectories(directory);
+		Path path = path(directory, spreadsheetId);
+		// a temp file of its own, two saves at once (say a shutdown hook and a sync) don't share one
+		Path tmp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private byte[] encode() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 * (emails.size() + headers.size()) + 16);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeBoolean(emailHeaderPresent);
+			writeStrings(out, emails);
+			writeStrings(out, headers);
+			out.writeLong(markedDate == null ? Long.MIN_VALUE : markedDate.toEpochDay());
+			long[] words = marked.toLongArray();
+			out.writeInt(words.length);
+			for (long word : words) {
+				out.writeLong(word);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			if (s == null) {
+				out.writeInt(-1);
+				continue;
+			}
+			byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(utf8.length);
+			out.write(utf8);
+		}
+	}
+
+	private static List<String> readStrings(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining() / 4)
+			throw new IllegalArgumentException("Bad count " + count);
+		List<String> strings = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int length = buffer.getInt();
+			if (length < 0) {
+				strings.add(null);
+				continue;
+			}
+			if (length > buffer.remaining())
+				throw new IllegalArgumentException("Bad length " + length);
+			byte[] utf8 = new byte[length];
+			buffer.get(utf8);
+			strings.add(new String(utf8, StandardCharsets.UTF_8));
+		}
+		return strings;
+	}
+
+	private static BitSet readBits(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining() / 8)
+			throw new IllegalArgumentException("Bad count " + count);
+		long[] words = new long[count];
+		buffer.asLongBuffer().get(words);
+		return BitSet.valueOf(words);
+	}
+
+	/**
+	 * @return ~/.muster/snapshots/1wLqJrMyMIcwigWzaWiVj64xTcZBKfZ6-VOs1qpmqHZA.snapshot
+	 */
+	private static Path path(Path directory, String spreadsheetId) {
+		// ids are letters, digits, - and _, anything else has no business in a file name
+		return directory.resolve(spreadsheetId.replaceAll("[^A-Za-z0-9_-]", "_") + SUFFIX);
+	}
+}
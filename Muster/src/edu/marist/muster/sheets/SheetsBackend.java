@@ -0,0 +1,117 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+/**
+ * The handful of Google Sheets calls Muster makes, so the rest of the
+ * code doesn't care whether it's talking to Google or not.
+ *
+ * <li>{@code GoogleSheetsBackend} is the real thing.
+ * <li>{@code InMemorySheetsBackend} is a grid in memory, for benchmarks,
+ * 		load tests and running without a Google account.
+ *
+ * <p>Ranges are in A1 notation ("A2:A", "1:1", "Sheet1!C4"), values are
+ * rows of cells like the Sheets API's {@code List<List<Object>>}. All
+ * calls are synchronous, and implementations must be thread safe.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public interface SheetsBackend {
+
+	/**
+	 * {@code values().get}
+	 * @param spreadsheetId
+	 * @param range
+	 * @param dimension
+	 * 		{@code COLUMNS} to get the values back column by column
+	 * @return the values, {@code null} if the range is empty
+	 * @throws OutsideGridException
+	 * 		if the range starts past the edge of the grid
+	 * @throws IOException
+	 */
+	List<List<Object>> get(String spreadsheetId, String range, Dimension dimension) throws IOException;
+
+	/**
+	 * {@code values().batchGet}, several ranges in one call.
+	 * @param spreadsheetId
+	 * @param ranges
+	 * @param dimension
+	 * @return one {@code ValueRange} per range, in the same order
+	 * @throws OutsideGridException
+	 * 		if any of the ranges starts past the edge of the grid
+	 * @throws IOException
+	 */
+	List<ValueRange> batchGet(String spreadsheetId, List<String> ranges, Dimension dimension) throws IOException;
+
+	/**
+	 * {@code values().update}, writes the values starting at the top left of the range.
+	 * @param spreadsheetId
+	 * @param range
+	 * @param values
+	 * 		row by row
+	 * @param option
+	 * @throws IOException
+	 */
+	void update(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException;
+
+	/**
+	 * {@code values().append}, writes the values after the last row that has
+	 * anything in the range's columns.
+	 * @param spreadsheetId
+	 * @param range
+	 * @param values
+	 * 		row by row
+	 * @param option
+	 * @return the range that was written, e.g. "Sheet1!A12:D12"
+	 * @throws IOException
+	 */
+	String append(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException;
+
+	/**
+	 * {@code values().batchUpdate}, several ranges in one call.
+	 * @param spreadsheetId
+	 * @param data
+	 * 		each with its range and values
+	 * @param option
+	 * @throws IOException
+	 */
+	void batchUpdate(String spreadsheetId, List<ValueRange> data, ValueInputOption option) throws IOException;
+
+	/**
+	 * {@code spreadsheets().get}, only the tabs' properties.
+	 * @param spreadsheetId
+	 * @return every tab's properties (title, id, grid size), in order
+	 * @throws IOException
+	 */
+	List<SheetProperties> sheets(String spreadsheetId) throws IOException;
+
+	/**
+	 * Adds rows or columns to the end of a tab's grid.
+	 * @param spreadsheetId
+	 * @param sheetId
+	 * 		the tab's id (not its title)
+	 * @param dimension
+	 * 		{@code ROWS} or {@code COLUMNS}
+	 * @param length
+	 * 		how many to add
+	 * @throws IOException
+	 */
+	void appendDimension(String spreadsheetId, int sheetId, Dimension dimension, int length) throws IOException;
+
+	/**
+	 * Adds a tab at the end of the spreadsheet.
+	 * @param spreadsheetId
+	 * @param title
+	 * 		must not be taken already
+	 * @return the new tab's properties (with its id)
+	 * @throws IOException
+	 */
+	SheetProperties addSheet(String spreadsheetId, String title) throws IOException;
+}
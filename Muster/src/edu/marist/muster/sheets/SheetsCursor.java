@@ -4,20 +4,16 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 
-import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.model.ValueRange;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 
 /**
  * <p>Quick access to single values in a Google Sheet.
  * 	<li>All methods are synchronous.
- * 	<li>Implements an in-memory cache to avoid repetitive
- * 		network calls.
+ * 	<li>Nothing is cached: the kiosk only writes single cells, what it
+ * 		reads is cached by {@code SheetModel} and {@code SheetsVector}.
+ * 		{@code cellValue()} goes to the network every time.
  * @author Tom Magnusson
  *
  * @param <T>
@@ -26,9 +22,9 @@ import com.google.common.cache.CacheBuilder;
 public final class SheetsCursor<T> {
 	
 	/**
-	 * Access to Google Sheets API
+	 * Access to Google Sheets (or something pretending to be it)
 	 */
-	private Sheets service;
+	private SheetsBackend backend;
 	
 	/**
 	 * The spreadsheet's id, found in the url of the sheet
@@ -36,10 +32,9 @@ public final class SheetsCursor<T> {
 	private String spreadsheetId;
 	
 	/**
-	 * Retrieves values from the cache if they exist in memory,
-	 * otherwise return them from the network (no extra expensive network requests).
+	 * The tab the cells are on, {@code null} for the first tab.
 	 */
-	private Cache<String, Optional<T>> cache = CacheBuilder.newBuilder().build();
+	private String sheet;
 	
 	/**
 	 * A function that converts an Object (from the network response)
@@ -62,53 +57,48 @@ public final class SheetsCursor<T> {
 	 */
 	private Function<Object, T> transform;
 	
-	public SheetsCursor(Sheets service, String spreadsheetId, Function<Object, T> transform) {
-		this.service = service;
+	public SheetsCursor(SheetsBackend backend, String spreadsheetId, Function<Object, T> transform) {
+		this.backend = backend;
 		this.spreadsheetId = spreadsheetId;
 		this.transform = transform;
 	}
 	
 	/**
-	 * Retrieves a value from a given cell.
+	 * Retrieves a value from a given cell, from the network.
 	 * @param cell
 	 * @return Optional T.
 	 * 		If the call failed in some way: {@code Optional.empty()}
 	 */
 	public Optional<T> cellValue(String cell) {
-		// lambda that gets the value from the network
-		Callable<Optional<T>> retrieveValue = () -> {
-			List<List<Object>> valuePackage;
-			try {
-				// network call
-				valuePackage = service.spreadsheets().values()
-						.get(spreadsheetId, cell)
-						.execute()
-						.getValues();
-				
-				// null checks
-				if(valuePackage != null && valuePackage.get(0) != null && valuePackage.get(0).get(0) != null) {
-					// unpack the value, then wrap it back up into an optional
-					T transformedValue = transform.apply(valuePackage.get(0).get(0));
-					return Optional.of(transformedValue);
-				} else {
-					// if the null checks fail, return empty
-					return Optional.empty();
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-				return Optional.empty();
-			}
-		};
 		try {
-			// gets the cell's value if it's already in memory,
-			// otherwise it goes to the network (because it has to).
-			return cache.get(cell, retrieveValue);
-		} catch (ExecutionException e) {
+			return retrieveValue(cell);
+		} catch (IOException e) {
 			e.printStackTrace();
 			return Optional.empty();
 		}
 	}
 	
+	/**
+	 * Gets the value from the network.
+	 * @param cell
+	 * @return Optional T, empty if the cell is blank
+	 * @throws IOException
+	 */
+	private Optional<T> retrieveValue(String cell) throws IOException {
+		// network call
+		List<List<Object>> valuePackage = backend.get(spreadsheetId, on(cell), Dimension.ROWS);
+		
+		// null checks
+		if(valuePackage != null && valuePackage.get(0) != null && valuePackage.get(0).get(0) != null) {
+			// unpack the value, then wrap it back up into an optional
+			T transformedValue = transform.apply(valuePackage.get(0).get(0));
+			return Optional.of(transformedValue);
+		} else {
+			// if the null checks fail, return empty
+			return Optional.empty();
+		}
+	}
+	
 	/**
 	 * Sets a cell with the given values
 	 * @param cell
@@ -117,9 +107,7 @@ public final class SheetsCursor<T> {
 	 */
 	public boolean setCellValue(String cell, T value) {
 		try {
-			service.spreadsheets().values().update(spreadsheetId, cell + ":" + cell, packValue(value))
-					.setValueInputOption("USER_ENTERED").execute();
-			cache.put(cell, Optional.of(value));
+			backend.update(spreadsheetId, on(cell + ":" + cell), packValue(value).getValues(), ValueInputOption.USER_ENTERED);
 		} catch (IOException e) {
 			e.printStackTrace();
 			return false;
@@ -144,4 +132,19 @@ public final class SheetsCursor<T> {
 	public void setSpreadsheetId(String id) {
 		this.spreadsheetId = id;
 	}
+	
+	/**
+	 * @param title
+	 * 		the tab the cells are on from now on, {@code null} for the first tab
+	 */
+	public void setSheet(String title) {
+		this.sheet = title;
+	}
+	
+	/**
+	 * @return the range on the cursor's tab
+	 */
+	private String on(String range) {
+		return sheet == null ? range : A1Notation.qualify(sheet, range);
+	}
 }
@@ -1,29 +1,73 @@
 package edu.marist.muster.sheets;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
 
-import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.GridProperties;
 import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.ValueRange;
 
 import edu.marist.muster.Preferences;
+import edu.marist.muster.journal.SignIn;
+import edu.marist.muster.metrics.SheetsMetrics;
 
 /**
- * Static wrapper for all the sheets HTTP calls, hiding the request logic (boy
+ * Wrapper for all the sheets HTTP calls, hiding the request logic (boy
  * is there a lot of that).<br>
  * 
- * The only interesting (or public) method is {@code mark()}, which marks
- * a given email here, configuring the sheet as necessary.
- * 
- * TODO: implement guava cache
- * TODO: refactor methods (condense, rename)
- * TODO: add SheetsVector class for dealing with rows and columns (then add cache to that)
+ * {@code mark()} marks a given email here, configuring the sheet as
+ * necessary. Around it:
+ * 	<li>The sheet is read once into a {@code SheetModel} (the header row
+ * 		and the email column, see {@code SheetsVector}), a sign in after
+ * 		that is usually a single write. {@code syncRoster()} keeps the
+ * 		model up to date with edits made elsewhere.
+ * 	<li>With write-behind on, writes are queued and sent together (see
+ * 		{@code BatchWriter}). With the event log on, every sign in is
+ * 		appended to a log tab instead (see {@code EventLog}).
+ * 	<li>With tab sharding on, each month or term gets its own tab (see
+ * 		{@code TabSharding}), made and switched to as sign ins need it.
+ * 	<li>{@code mark(email, time)} and {@code flush()} are what the
+ * 		{@code JournalReplayer} drains the journal with, the
+ * 		{@code MarkResult} tells it whether to try again.
+ * 	<li>{@code markAll()} writes a whole stack of sign ins (an import) in
+ * 		a few {@code batchUpdate}s.
+ * 	<li>Mark listeners hear about every sign in that made it, e.g. the
+ * 		analytics, and {@code isSignedIn()} and {@code roster()} answer
+ * 		from the model without the network.
+ * 	<li>With snapshotting on, the model is saved between runs (see
+ * 		{@code SheetSnapshot}), a start answers from it while the sheet
+ * 		is caught up with in the background (see {@code prefetch()}).
  * 
  * @author Tom Magnusson
  *
@@ -31,44 +75,20 @@ import edu.marist.muster.Preferences;
 public final class SheetsHelper {
 
 	/**
-	 * Use {@code toString()} to get the string representation.
-	 * 
-	 * Represents the two types of dimensions for Google Sheets.
-	 * 
-	 * @author Tom Magnusson
-	 *
+	 * The way this class communicates over the network with sheets
+	 * (or with a grid in memory). All of its methods are synchronous.
 	 */
-	private enum Dimension {
-		ROWS, COLUMNS;
-	}
-
+	private SheetsBackend backend;
+	
 	/**
-	 * Use {@code toString()} to get the string representation.
-	 * 
-	 * Represents the two types of value inputs for Google Sheets.
-	 * 
-	 *  <li>{@code RAW} puts the values verbatim into the cell.
-	 *  <li>{@code USER_ENTERED} puts the values into a cell, then
-	 *  	sheets might format it (like if it's a date or time).
-	 * 
-	 * @author Tom Magnusson
-	 *
+	 * The header row, "Email" in A1 then the dates.
 	 */
-	private enum ValueInputOption {
-		RAW, USER_ENTERED;
-	}
+	private SheetsVector<String> header;
 
 	/**
-	 * The way this class communicates over the network with sheets.
-	 * All of its methods are synchronous.
-	 */
-	private Sheets service;
-	
-	/**
-	 * Convenience class reading and writing
-	 * single cells and values in those cells.
+	 * The email column, starting at A2.
 	 */
-	private SheetsCursor<String> cursor;
+	private SheetsVector<String> emails;
 	
 	/**
 	 * Holds the spreadsheet's id, found in the url like:
@@ -77,200 +97,1381 @@ public final class SheetsHelper {
 	 */
 	private String spreadsheetId;
 
+	/**
+	 * Where the emails and dates are on the sheet, so {@code mark()}
+	 * only has to go to the network to write.
+	 */
+	private SheetModel model = new SheetModel();
+
+	/**
+	 * Held while the model is filled from the sheet (or a snapshot), so only
+	 * one sign in does the reading. The model's own lock is only taken once
+	 * the reading is done, {@code isSignedIn()} never waits on the network.
+	 */
+	private final Object loadLock = new Object();
+
+	/**
+	 * Only there when {@code Preferences.isWriteBehind()}, queues the writes
+	 * and sends them in batches instead of one call per cell.
+	 */
+	private BatchWriter writer;
+
+	/**
+	 * Only there when {@code Preferences.isEventLog()}, sign ins are
+	 * appended to it instead of going into the grid.
+	 */
+	private EventLog log;
+
+	/**
+	 * The tabs the event log and the grid rebuilt from it live on.
+	 */
+	private static final String LOG_TAB = "Log";
+
+	private static final String ATTENDANCE_TAB = "Attendance";
+
+	/**
+	 * Where finished tabs are added up, see {@code TabArchiver}.
+	 */
+	private static final String SUMMARY_TAB = "Summary";
+
+	/**
+	 * Which tab a date's sign ins go on, see {@code TabSharding}. Always
+	 * {@code NONE} with the event log on, the log has a tab of its own.
+	 */
+	private final TabSharding sharding;
+
+	/**
+	 * The tab the model and the vectors are on, {@code null}
+	 * for the first tab. Volatile, {@code isSignedIn()} reads it without a lock.
+	 */
+	private volatile String tab;
+
+	/**
+	 * Sign ins hold the read lock while they use the tab, moving to
+	 * another tab takes the write lock.
+	 */
+	private final ReadWriteLock tabLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Sums up finished tabs in the background, {@code null} when not sharding.
+	 */
+	private TabArchiver archiver;
+
+	private ExecutorService archiveExecutor;
+
+	/**
+	 * Where the model is saved between runs (see {@code SheetSnapshot}),
+	 * {@code null} when it isn't.
+	 */
+	private Path snapshots;
+
+	/**
+	 * How many rows / columns to add at a time once the sheet is full,
+	 * so it doesn't have to grow on every new student or date.
+	 */
+	private static final int GRID_ROW_HEADROOM = 1000;
+
+	private static final int GRID_COLUMN_HEADROOM = 26;
+
+	/**
+	 * {@code markAll()} sends a gap of up to this many untouched cells in a
+	 * column as {@code null}s rather than starting a new range.
+	 */
+	private static final int BULK_MAX_GAP = 50;
+
+	/**
+	 * How many cells {@code markAll()} puts in one {@code batchUpdate}.
+	 */
+	private static final int BULK_CELLS_PER_CALL = 10000;
+
+	/**
+	 * Properties of the tab in use (its id and grid size), read the first time
+	 * a new row or column is added. {@code null} until then.
+	 */
+	private SheetProperties sheetProperties;
+
+	/**
+	 * Told about every sign in after it's written (or queued), see
+	 * {@code addMarkListener()}.
+	 */
+	private final List<BiConsumer<String, LocalDateTime>> markListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Where the time goes, see {@code SheetsMetrics}.
+	 */
+	private final SheetsMetrics metrics = SheetsMetrics.getInstance();
+
 	private void createSheet() throws IOException {
-		cursor.setCellValue("A1", "Email");
+		if (model.claimEmailHeader())
+			header.set(0, "Email");
 	}
 
 	public SheetsHelper() {
-		// Build a new authorized API client service.
+		this(googleBackend());
+	}
+
+	/**
+	 * @param backend
+	 * 		where the sheet lives, e.g. an {@code InMemorySheetsBackend} to run
+	 * 		without Google
+	 */
+	public SheetsHelper(SheetsBackend backend) {
+		// every call goes through here, so every call is counted and kept inside the quota
+		backend = new ThrottlingSheetsBackend(new InstrumentedSheetsBackend(backend, metrics), quota(),
+				Preferences.getMaxRetries(), Preferences.getInitialBackoffMillis(),
+				Preferences.getMaxBackoffMillis(), metrics);
+		this.backend = backend;
+
+		// grab the ID of the sheet, within the url
+		spreadsheetId = Preferences.getSheetID();
+		
+		// convenience classes for whole rows and columns
+		header = SheetsVector.row(backend, spreadsheetId, 1, 0, (o) -> (String) o);
+		emails = SheetsVector.column(backend, spreadsheetId, 0, 2, (o) -> (String) o);
+
+		if (Preferences.isEventLog()) {
+			boolean batched = Preferences.isWriteBehind();
+			log = new EventLog(backend, spreadsheetId, LOG_TAB, Preferences.getKioskName(),
+					batched ? Preferences.getFlushIntervalMillis() : 0, Preferences.getMaxBatchSize());
+			if (batched)
+				metrics.setPendingWrites(log::pendingCount);
+
+			long rebuildMillis = Preferences.getAttendanceRebuildMillis();
+			if (rebuildMillis > 0) {
+				ScheduledExecutorService rebuilder = Executors.newSingleThreadScheduledExecutor((r) -> {
+					Thread t = new Thread(r, "attendance-rebuild");
+					t.setDaemon(true);
+					return t;
+				});
+				rebuilder.scheduleWithFixedDelay(this::rebuildAttendanceQuietly, rebuildMillis, rebuildMillis,
+						TimeUnit.MILLISECONDS);
+			}
+		} else if (Preferences.isWriteBehind()) {
+			writer = new BatchWriter(backend, spreadsheetId,
+					Preferences.getFlushIntervalMillis(), Preferences.getMaxBatchSize());
+			header.setBatchWriter(writer);
+			emails.setBatchWriter(writer);
+			metrics.setPendingWrites(writer::pendingCount);
+		}
+
+		sharding = log == null ? Preferences.getTabSharding() : TabSharding.NONE;
+		if (sharding != TabSharding.NONE) {
+			archiver = new TabArchiver(backend, SUMMARY_TAB);
+			archiveExecutor = Executors.newSingleThreadExecutor((r) -> {
+				Thread t = new Thread(r, "tab-archive");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+
+		if (Preferences.isSnapshotting() && log == null) {
+			snapshots = Preferences.snapshotDirectory();
+			// new students since the last save are worth keeping for the next start
+			Runtime.getRuntime().addShutdownHook(new Thread(this::saveSnapshot));
+		}
+
+		long syncMillis = Preferences.getRosterSyncMillis();
+		if (syncMillis > 0 && log == null) {
+			ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor((r) -> {
+				Thread t = new Thread(r, "roster-sync");
+				t.setDaemon(true);
+				return t;
+			});
+			syncer.scheduleWithFixedDelay(this::syncRosterQuietly, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Builds a helper on Google Sheets in the background: loads the client
+	 * secret, authorizes (which may open a browser the first time), builds
+	 * the service, then reads the header and roster (or the snapshot of
+	 * them) so the first sign in doesn't have to.
+	 * @return completes with the helper, or exceptionally if Google Sheets
+	 * 		isn't available. A failed prefetch doesn't count, the first sign
+	 * 		in just reads the sheet itself.
+	 */
+	public static CompletableFuture<SheetsHelper> startAsync() {
+		Executor startup = (r) -> {
+			Thread t = new Thread(r, "sheets-startup");
+			t.setDaemon(true);
+			t.start();
+		};
+		return CompletableFuture.supplyAsync(() -> {
+			SheetsHelper helper;
+			try {
+				helper = new SheetsHelper(new GoogleSheetsBackend(GoogleAPIHelper.getSheetsService()));
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+			helper.prefetch();
+			return helper;
+		}, startup);
+	}
+
+	/**
+	 * Reads the header row and the email column now, instead of on the
+	 * first sign in (or makes the log tab, with the event log on).
+	 * Does nothing if no sheet has been set yet.
+	 * 
+	 * <p>If there's a snapshot of the sheet from the last run the model is
+	 * loaded from that instead, which doesn't wait on the network, and the
+	 * sheet is read in the background to catch up with any changes. Until
+	 * it has, sign ins of people already in the snapshot are answered from
+	 * it, one that needs a new row or date column reads the sheet first.
+	 * 
+	 * <p>With tab sharding on, today's tab is made now if it isn't there.
+	 */
+	public void prefetch() {
+		if (spreadsheetId == null)
+			return;
+		try {
+			if (log != null) {
+				log.ensureTab(spreadsheetId);
+				return;
+			}
+			Lock tabInUse = useTabFor(LocalDate.now());
+			try {
+				SheetSnapshot snapshot = loadSnapshot();
+				if (snapshot != null) {
+					String snapshotTab = tab;
+					Thread reconciler = new Thread(() -> reconcileQuietly(snapshot, snapshotTab), "snapshot-reconcile");
+					reconciler.setDaemon(true);
+					reconciler.start();
+					return;
+				}
+				loadModel();
+			} finally {
+				tabInUse.unlock();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			invalidateModel();
+		}
+	}
+
+	/**
+	 * Build a new authorized API client service.
+	 * @return the real Google Sheets
+	 */
+	private static SheetsBackend googleBackend() {
 		// grab the http services helper from the API Boilerplate setup
 		// class
 		try {
-			service = GoogleAPIHelper.getSheetsService();
+			return new GoogleSheetsBackend(GoogleAPIHelper.getSheetsService());
 		} catch (Exception e) {
 			e.printStackTrace();
 			System.err.println("Google sheets is not available.");
 			System.exit(-1);
+			return null;
 		}
-
-		// grab the ID of the sheet, within the url
-		spreadsheetId = Preferences.getSheetID();
-		
-		// convenience class for reading and writing single values
-		cursor = new SheetsCursor<>(service, spreadsheetId, (o) -> (String) o);
 	}
 	
+	/**
+	 * @return the Sheets API quota from the preferences, {@code null} for none
+	 */
+	private static TokenBucket quota() {
+		int requests = Preferences.getRequestsPer100Seconds();
+		if (requests <= 0)
+			return null;
+		return new TokenBucket(requests, 100, TimeUnit.SECONDS, Preferences.getRequestBurst());
+	}
+
 	// TODO: fix this id mess
 	public void setSpreadSheetId(String id) {
-		this.spreadsheetId = id;
-		this.cursor.setSpreadsheetId(id);
+		// the tab lock first, like everything else that takes both
+		Lock noSignIns = tabLock.writeLock();
+		noSignIns.lock();
+		try {
+			synchronized (this) {
+				if (id != null && !id.equals(this.spreadsheetId)) {
+					// a different sheet, nothing we know is true anymore
+					model.forget();
+					sheetProperties = null;
+					// and the next sign in finds (or makes) its tab on it
+					setTab(null);
+				}
+				this.spreadsheetId = id;
+				this.header.setSpreadsheetId(id);
+				this.emails.setSpreadsheetId(id);
+				if (writer != null)
+					writer.setSpreadsheetId(id);
+				if (log != null)
+					log.setSpreadsheetId(id);
+			}
+		} finally {
+			noSignIns.unlock();
+		}
+	}
+
+	/**
+	 * Moves to the tab a date's sign ins go on, unless it's the one in
+	 * use, and keeps it from moving again until the lock is let go.
+	 * @param date
+	 * @return the read lock of the tab, held
+	 * @throws IOException
+	 * 		if the tab had to be made and couldn't be
+	 */
+	private Lock useTabFor(LocalDate date) throws IOException {
+		String wanted = sharding.tabFor(date);
+		while (true) {
+			Lock read = tabLock.readLock();
+			read.lock();
+			if (Objects.equals(wanted, tab))
+				return read;
+			read.unlock();
+			switchTab(wanted);
+		}
+	}
+
+	/**
+	 * Leaves the tab in use for another one: the model is saved and
+	 * forgotten, and the vectors point at the new tab.
+	 * A tab that isn't on the sheet yet is made, see {@code openTab()}.
+	 * @param wanted
+	 * @throws IOException
+	 * 		if the new tab couldn't be made, the old one stays in use
+	 */
+	private void switchTab(String wanted) throws IOException {
+		Lock noSignIns = tabLock.writeLock();
+		noSignIns.lock();
+		try {
+			if (Objects.equals(wanted, tab))
+				return; // someone else got here first
+			String previous = tab;
+			// new emails still held for the old tab belong in the new one's roster
+			if (writer != null) {
+				try {
+					writer.flush();
+				} catch (IOException e) {
+					e.printStackTrace(); // still queued, they go to the old tab later
+				}
+			}
+			saveSnapshot();
+
+			metrics.time("switchTab", () -> {
+				setTab(wanted);
+				try {
+					openTab();
+				} catch (IOException e) {
+					setTab(previous);
+					throw e;
+				}
+				return null;
+			});
+			System.out.println("Signing in on tab \"" + wanted + "\".");
+		} finally {
+			noSignIns.unlock();
+		}
+	}
+
+	/**
+	 * Empties the model so the next sign in reads the sheet, once no sign
+	 * in is halfway through: one that has reserved a row or column but not
+	 * written it yet would otherwise see the same one handed out again.
+	 * Must not be called holding the tab's read lock.
+	 */
+	private void invalidateModel() {
+		Lock noSignIns = tabLock.writeLock();
+		noSignIns.lock();
+		try {
+			model.invalidate();
+		} finally {
+			noSignIns.unlock();
+		}
+	}
+
+	private void setTab(String title) {
+		tab = title;
+		header.setSheet(title);
+		emails.setSheet(title);
+		sheetProperties = null;
+		model.forget();
+	}
+
+	/**
+	 * Makes sure the tab in use is on the sheet. One that isn't there yet is
+	 * made with "Email" and the roster of the tab before it by date (after
+	 * it, for the first) so the rows stay put, the model starts from that without reading anything.
+	 * Only a tab later than all the others finishes the one before it, which
+	 * is then summed up in the background: an import of an old date or a
+	 * replay across a month makes its tab without touching the live one.
+	 * @throws IOException
+	 */
+	private void openTab() throws IOException {
+		List<SheetProperties> tabs = backend.sheets(spreadsheetId);
+		LocalDate start = sharding.startOf(tab);
+		String before = null; // the latest tab before this one
+		LocalDate beforeStart = null;
+		String after = null; // the earliest tab after it
+		LocalDate afterStart = null;
+		for (SheetProperties properties : tabs) {
+			String title = properties.getTitle();
+			if (title.equals(tab)) {
+				sheetProperties = properties;
+				return;
+			}
+			if (title.equals(SUMMARY_TAB) || title.equals(LOG_TAB) || title.equals(ATTENDANCE_TAB))
+				continue;
+			// a tab from before sharding (or a hand made one) is older than any
+			LocalDate from = sharding.startOf(title);
+			if (from == null)
+				from = LocalDate.MIN;
+			if (start == null || from.isBefore(start)) {
+				if (beforeStart == null || !from.isBefore(beforeStart)) {
+					before = title;
+					beforeStart = from;
+				}
+			} else if (afterStart == null || from.isBefore(afterStart)) {
+				after = title;
+				afterStart = from;
+			}
+		}
+
+		List<String> roster = new ArrayList<>(0);
+		String rosterFrom = before != null ? before : after;
+		if (rosterFrom != null) {
+			SheetsVector<String> column = SheetsVector.column(backend, spreadsheetId, 0, 2, (o) -> (String) o);
+			column.setSheet(rosterFrom);
+			roster = column.values();
+		}
+
+		try {
+			sheetProperties = backend.addSheet(spreadsheetId, tab);
+		} catch (IOException e) {
+			// another kiosk may have just made it, roster and all
+			sheetProperties = null;
+			for (SheetProperties properties : backend.sheets(spreadsheetId)) {
+				if (properties.getTitle().equals(tab))
+					return;
+			}
+			throw e;
+		}
+
+		List<List<Object>> column = new ArrayList<>(roster.size() + 1);
+		column.add(Collections.<Object>singletonList("Email"));
+		for (String email : roster) {
+			column.add(Collections.<Object>singletonList(email));
+		}
+		ensureGridSize(column.size(), 1);
+		backend.update(spreadsheetId, on("A1:A" + column.size()), column, ValueInputOption.USER_ENTERED);
+
+		List<String> headerRow = new ArrayList<>(1);
+		headerRow.add("Email");
+		model.load(true, roster, headerRow);
+
+		if (before != null && after == null)
+			archive(before);
+	}
+
+	/**
+	 * Sums up a finished tab onto the summary in the background.
+	 * @param title
+	 */
+	private void archive(String title) {
+		String id = spreadsheetId;
+		archiveExecutor.execute(() -> {
+			try {
+				metrics.time("archiveTab", () -> archiver.archive(id, title));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * @param range
+	 * @return the range on the tab in use
+	 */
+	private String on(String range) {
+		return tab == null ? range : A1Notation.qualify(tab, range);
 	}
 
 	/**
 	 * Marks an email here at the current time on the current date
 	 * in the google sheet. This call is synchronous.
+	 * 
+	 * <p>The first call reads the sheet into the {@code SheetModel}, after
+	 * that a student who is already on the sheet on a date that already
+	 * has a column costs a single write. With write-behind on, the write is
+	 * only queued and this returns as soon as it is.
+	 * 
+	 * <p>With the event log on, nothing is read at all, every sign in is
+	 * one append to the log (see {@code EventLog}).
+	 * 
+	 * <p>Someone already marked that day is answered from the model when
+	 * {@code Preferences.getDuplicateSignIn()} is {@code KEEP_FIRST},
+	 * nothing is written.
+	 * 
+	 * <p>Safe to call from several threads at once.
 	 * @param email
-	 * @return {@code true} if the email successfully updated, {@code false} otherwise.
-	 * @throws IOException
+	 * @return {@code MARKED} if the email successfully updated, otherwise
+	 * 		whether it's worth trying again (see {@code MarkResult})
 	 */
-	public boolean mark(String email) {
+	public MarkResult mark(String email) {
+		return mark(email, LocalDateTime.now());
+	}
+
+	/**
+	 * Marks an email here at the given time, e.g. a sign in replayed
+	 * from the journal after the network came back.
+	 * @param email
+	 * @param time
+	 * 		the date picks the column, the time goes in the cell
+	 * @return {@code MARKED} if the email successfully updated, otherwise
+	 * 		whether it's worth trying again (see {@code MarkResult})
+	 */
+	public MarkResult mark(String email, LocalDateTime time) {
+		metrics.markStarted();
+		MarkResult marked = tryMark(email, time);
+		metrics.markFinished(marked == MarkResult.MARKED);
+		return marked;
+	}
+
+	private MarkResult tryMark(String email, LocalDateTime time) {
+		if (email == null || email.trim().isEmpty() || time == null)
+			return MarkResult.REJECTED;
 		email = email.toLowerCase(); // make sure the emails are consistent
+		if (log != null)
+			return tryLog(email, time);
 		try {
-			System.out.println(email);
-			if (!emailHeaderIsPresent())
-				createSheet();
-
-			boolean emailExists = emailRowExists(email);
-			System.out.println("Email row exists: " + emailExists);
-			if (!emailExists)
-				appendEmailRow(email);
-
-			boolean todayExists = todayColumnExists();
-			System.out.println("Today column exists: " + todayExists);
-			if (!todayExists)
-				appendTodayColumn();
-
-			insertTimeMarkForEmail(email);
-			return true;
+			LocalDate date = time.toLocalDate();
+			Lock tabInUse = useTabFor(date);
+			try {
+				boolean wasLoaded = model.isLoaded();
+				loadModel();
+
+				if (!model.isEmailHeaderPresent())
+					createSheet();
+
+				int row = model.rowForEmail(email);
+				if (model.isMarkedOnSheet(date, row) && Preferences.getDuplicateSignIn() == DuplicateSignIn.KEEP_FIRST) {
+					metrics.modelLookup(wasLoaded);
+					metrics.duplicateSignIn();
+					return MarkResult.MARKED;
+				}
+				String dateString = date.format(DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT));
+				int col = model.columnForDate(dateString);
+				metrics.modelLookup(wasLoaded && row >= 0 && col >= 0);
+
+				if (row < 0)
+					row = appendEmailRow(email);
+				if (col < 0)
+					col = appendDateColumn(dateString);
+
+				insertTimeMark(row, col, time.toLocalTime());
+				model.marked(date, row);
+				fireMarked(email, time);
+				return MarkResult.MARKED;
+			} finally {
+				tabInUse.unlock();
+			}
 		} catch(Exception e) {
 			e.printStackTrace();
-			return false;
+			// whatever failed, the sheet might not look like we think it does
+			invalidateModel();
+			return MarkResult.of(e);
 		}
 	}
 
-	private void insertTimeMarkForEmail(String email) throws IOException {
-		int emailRowNumber = findRowForEmail(email);
-		String todayColLetter = findColForDate(LocalDate.now());
-		String timeString = LocalTime.now().format(DateTimeFormatter.ofPattern(Preferences.TIME_FORMAT));
-		cursor.setCellValue(todayColLetter + emailRowNumber, timeString);
+	/**
+	 * Marks a whole stack of sign ins at once, e.g. a session taken on paper
+	 * (see {@code Import}). Rather than a {@code mark()} each:
+	 * 	<li>every row and column is worked out from the model first, new
+	 * 		emails and dates get theirs reserved,
+	 * 	<li>the grid is grown once, to fit all of them,
+	 * 	<li>everything goes out in a few {@code batchUpdate}s: the new emails
+	 * 		down column A, the new dates along row 1, and the times in runs
+	 * 		of rows per date column (a short gap in a run is sent as
+	 * 		{@code null}, which leaves those cells alone).
+	 * 
+	 * <p>Someone in there twice on one day gets their earliest time with
+	 * {@code KEEP_FIRST}, their latest with {@code KEEP_LAST}. With
+	 * {@code KEEP_FIRST} a time only goes in a blank cell: the date columns
+	 * already on the sheet are read first (one {@code batchGet}), since the
+	 * model only knows today's marks and an import of an old session
+	 * would otherwise write over the kiosk's times. With tab sharding on,
+	 * the sign ins are written a tab at a time. With the event log on, they
+	 * are appended to it in one call instead.
+	 * 
+	 * <p>Synchronous, and safe alongside {@code mark()}.
+	 * @param signIns
+	 * 		emails in any case
+	 * @return how many cells got a time
+	 * @throws IOException
+	 * 		some of it may have been written, the model is invalidated so the
+	 * 		next sign in reads the sheet again
+	 */
+	public int markAll(List<SignIn> signIns) throws IOException {
+		if (signIns.isEmpty())
+			return 0;
+		if (log != null) {
+			metrics.time("appendLog", () -> {
+				log.logAll(signIns);
+				return null;
+			});
+			for (SignIn signIn : signIns) {
+				fireMarked(signIn.getEmail().toLowerCase(), signIn.getTime());
+			}
+			return signIns.size();
+		}
+		// in date order the tabs come one after another, each is used once
+		Map<String, List<SignIn>> byTab = new LinkedHashMap<>();
+		for (SignIn signIn : signIns) {
+			byTab.computeIfAbsent(sharding.tabFor(signIn.getTime().toLocalDate()), (t) -> new ArrayList<>())
+					.add(signIn);
+		}
+		try {
+			int written = 0;
+			for (List<SignIn> onTab : byTab.values()) {
+				Lock tabInUse = useTabFor(onTab.get(0).getTime().toLocalDate());
+				try {
+					written += metrics.time("markAll", () -> writeAll(onTab));
+					saveSnapshot();
+				} finally {
+					tabInUse.unlock();
+				}
+			}
+			return written;
+		} catch (IOException e) {
+			invalidateModel();
+			throw e;
+		}
 	}
 
-	private String findColForDate(LocalDate date) throws IOException {
-		List<String> dates = getAllDates();
-		System.out.println("All dates: " + dates);
-		int dateColIndex = getAllDates().indexOf(date.format(DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT)));
-		System.out.println("Date column index: " + dateColIndex);
-		return indexToLetter(dateColIndex + 1);
+	/**
+	 * Takes out the times headed for cells that already have one, reading
+	 * every date column that was on the sheet before this write.
+	 * @param times
+	 * 		column -> row -> time
+	 * @param newColumns
+	 * 		columns this write adds, nothing to read there
+	 * @param dates
+	 * 		column -> date
+	 * @throws IOException
+	 */
+	private void dropFilledCells(SortedMap<Integer, SortedMap<Integer, LocalTime>> times,
+			Set<Integer> newColumns, Map<Integer, LocalDate> dates) throws IOException {
+		List<Integer> columns = new ArrayList<>();
+		List<String> ranges = new ArrayList<>();
+		for (int col : times.keySet()) {
+			if (newColumns.contains(col))
+				continue;
+			String letters = A1Notation.columnToLetters(col);
+			columns.add(col);
+			ranges.add(on(letters + "2:" + letters));
+		}
+		if (ranges.isEmpty())
+			return;
+		if (writer != null)
+			writer.flush(); // held times count as filled too
+		List<ValueRange> read = metrics.time("readMarks",
+				() -> backend.batchGet(spreadsheetId, ranges, Dimension.COLUMNS));
+		for (int i = 0; i < columns.size() && i < read.size(); i++) {
+			int col = columns.get(i);
+			List<List<Object>> values = read.get(i).getValues();
+			List<Object> column = values == null || values.isEmpty() ? Collections.emptyList() : values.get(0);
+			Iterator<Integer> rows = times.get(col).keySet().iterator();
+			while (rows.hasNext()) {
+				int row = rows.next();
+				Object time = row - 2 < column.size() ? column.get(row - 2) : null;
+				if (time != null && !"".equals(time)) {
+					rows.remove();
+					model.marked(dates.get(col), row);
+					metrics.duplicateSignIn();
+				}
+			}
+			if (times.get(col).isEmpty())
+				times.remove(col);
+		}
+	}
+
+	private int writeAll(List<SignIn> signIns) throws IOException {
+		loadModel();
+
+		if (!model.isEmailHeaderPresent())
+			createSheet();
+
+		DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT);
+		boolean keepFirst = Preferences.getDuplicateSignIn() == DuplicateSignIn.KEEP_FIRST;
+		BinaryOperator<LocalTime> keep = keepFirst
+				? (a, b) -> a.isAfter(b) ? b : a
+				: (a, b) -> a.isAfter(b) ? a : b;
+
+		// sheet row -> new email, column -> new date, column -> row -> time
+		SortedMap<Integer, Object> newEmails = new TreeMap<>();
+		SortedMap<Integer, Object> newDates = new TreeMap<>();
+		SortedMap<Integer, SortedMap<Integer, LocalTime>> times = new TreeMap<>();
+		Map<Integer, LocalDate> dates = new HashMap<>();
+		Map<Integer, String> emailsByRow = new HashMap<>();
+		int lastRow = 1;
+		int lastColumn = 0;
+
+		for (SignIn signIn : signIns) {
+			String email = signIn.getEmail().toLowerCase();
+			LocalDate date = signIn.getTime().toLocalDate();
+
+			int row = model.rowForEmail(email);
+			if (row < 0) {
+				row = reserve(() -> model.addEmail(email));
+				if (row < 0) // a sign in beat us to it
+					row = model.rowForEmail(email);
+				else
+					newEmails.put(row, email);
+			}
+			if (keepFirst && model.isMarkedOnSheet(date, row)) {
+				metrics.duplicateSignIn();
+				continue;
+			}
+
+			String dateString = date.format(dateFormat);
+			int col = model.columnForDate(dateString);
+			if (col < 0) {
+				col = reserve(() -> model.addDate(dateString));
+				if (col < 0)
+					col = model.columnForDate(dateString);
+				else
+					newDates.put(col, dateString);
+			}
+			dates.put(col, date);
+			emailsByRow.put(row, email);
+
+			times.computeIfAbsent(col, (c) -> new TreeMap<>()).merge(row, signIn.getTime().toLocalTime(), keep);
+			lastRow = Math.max(lastRow, row);
+			lastColumn = Math.max(lastColumn, col);
+		}
+		if (times.isEmpty())
+			return 0;
+
+		int written = 0;
+		try {
+			if (keepFirst)
+				dropFilledCells(times, newDates.keySet(), dates);
+			ensureGridSize(lastRow, lastColumn + 1);
+
+			// emails and dates go first, a time is no good without them
+			List<ValueRange> data = new ArrayList<>();
+			data.addAll(runs(newEmails, (row) -> A1Notation.cell(0, row), true));
+			data.addAll(runs(newDates, (col) -> A1Notation.cell(col, 1), false));
+			DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern(Preferences.TIME_FORMAT);
+			for (Map.Entry<Integer, SortedMap<Integer, LocalTime>> column : times.entrySet()) {
+				int col = column.getKey();
+				SortedMap<Integer, Object> cells = new TreeMap<>();
+				for (Map.Entry<Integer, LocalTime> time : column.getValue().entrySet()) {
+					cells.put(time.getKey(), time.getValue().format(timeFormat));
+				}
+				data.addAll(runs(cells, (row) -> A1Notation.cell(col, row), true));
+				written += cells.size();
+			}
+
+			for (ValueRange range : data) {
+				range.setRange(on(range.getRange()));
+			}
+			int from = 0;
+			while (from < data.size()) {
+				int to = from;
+				int cells = 0;
+				while (to < data.size() && (to == from || cells + data.get(to).getValues().size() <= BULK_CELLS_PER_CALL)) {
+					cells += data.get(to).getValues().size();
+					to++;
+				}
+				backend.batchUpdate(spreadsheetId, data.subList(from, to), ValueInputOption.USER_ENTERED);
+				from = to;
+			}
+		} catch (IOException | RuntimeException e) {
+			// the next reload decides what made it
+			for (Object email : newEmails.values()) {
+				model.releaseEmail((String) email);
+			}
+			for (Object date : newDates.values()) {
+				model.releaseDate((String) date);
+			}
+			throw e;
+		}
+
+		for (Map.Entry<Integer, SortedMap<Integer, LocalTime>> column : times.entrySet()) {
+			LocalDate date = dates.get(column.getKey());
+			for (Map.Entry<Integer, LocalTime> time : column.getValue().entrySet()) {
+				model.marked(date, time.getKey());
+				fireMarked(emailsByRow.get(time.getKey()), date.atTime(time.getValue()));
+			}
+		}
+		// written around the vectors, the header has to be read again. The
+		// new emails are picked up by the next syncRoster() like anyone else's
+		header.invalidate();
+		return written;
 	}
 
 	/**
-	 * Finds the row for the given email in the google sheet.
-	 * <p>This corresponds to the sheet row number (e.g. "A<strong>3</strong>"), <strong>not</strong>
-	 * the index within the list of emails.
-	 * @param email
-	 * @return the row number of the given email in column "A".
+	 * Splits the cells along one row or column into ranges: a gap of up to
+	 * {@code BULK_MAX_GAP} cells is filled with {@code null}s, a longer one
+	 * (or a range reaching {@code BULK_CELLS_PER_CALL}) starts a new range.
+	 * @param cells
+	 * 		position along the line (row number or column index) -> value
+	 * @param cellAt
+	 * 		the A1 cell at a position
+	 * @param column
+	 * 		{@code true} if the line runs down a column
+	 * @return the ranges, values laid out by rows like every other write
+	 */
+	private static List<ValueRange> runs(SortedMap<Integer, Object> cells, IntFunction<String> cellAt,
+			boolean column) {
+		List<ValueRange> ranges = new ArrayList<>();
+		List<Object> run = new ArrayList<>();
+		int first = -1;
+		int last = -1;
+		for (Map.Entry<Integer, Object> cell : cells.entrySet()) {
+			int at = cell.getKey();
+			if (first >= 0 && (at - last > BULK_MAX_GAP + 1 || at - first >= BULK_CELLS_PER_CALL)) {
+				ranges.add(range(cellAt.apply(first), cellAt.apply(last), run, column));
+				run = new ArrayList<>();
+				first = -1;
+			}
+			if (first < 0) {
+				first = at;
+			} else {
+				for (int gap = last + 1; gap < at; gap++) {
+					run.add(null);
+				}
+			}
+			run.add(cell.getValue());
+			last = at;
+		}
+		if (first >= 0)
+			ranges.add(range(cellAt.apply(first), cellAt.apply(last), run, column));
+		return ranges;
+	}
+
+	private static ValueRange range(String firstCell, String lastCell, List<Object> values, boolean column) {
+		List<List<Object>> outer;
+		if (column) {
+			outer = new ArrayList<>(values.size());
+			for (Object value : values) {
+				outer.add(Collections.singletonList(value));
+			}
+		} else {
+			outer = new ArrayList<>(1);
+			outer.add(values);
+		}
+		return new ValueRange().setRange(firstCell + ":" + lastCell).setValues(outer);
+	}
+
+	private MarkResult tryLog(String email, LocalDateTime time) {
+		try {
+			metrics.time("appendLog", () -> {
+				log.log(email, time);
+				return null;
+			});
+			fireMarked(email, time);
+			return MarkResult.MARKED;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return MarkResult.of(e);
+		}
+	}
+
+	/**
+	 * Reads the header row and the email column into the model.
+	 * Only happens on the first sign in, or after something went wrong.
 	 * @throws IOException
 	 */
-	private int findRowForEmail(String email) throws IOException {
-		int index = getAllEmails().indexOf(email);
+	private void loadModel() throws IOException {
+		loadModel(false);
+	}
 
-		// +2 because it's 1 based indexing,
-		// and "Email" is always in A1.
-		return index + 2;
+	/**
+	 * @param fresh
+	 * 		{@code true} to also read the sheet if the model is still only a
+	 * 		snapshot, e.g. before reserving a row in it
+	 * @throws IOException
+	 */
+	private void loadModel(boolean fresh) throws IOException {
+		boolean read = false;
+		// only one sign in does the reading, the rest wait for it
+		synchronized (loadLock) {
+			if (!model.isLoaded() || (fresh && model.isFromSnapshot())) {
+				// the model being empty means something went wrong, don't trust the copies either
+				header.invalidate();
+				emails.invalidate();
+				reloadModel();
+				read = true;
+			}
+		}
+		if (read) {
+			readTodaysMarks();
+			saveSnapshot();
+		}
 	}
 
 	/**
-	 * TODO: bug where the formatting on the actual sheet is M-d-uu, not M/d/uu
-	 * 
+	 * Marks in the model everyone today's column already has a time for, so
+	 * a repeat sign in after a restart, or after signing in at another
+	 * kiosk, is still answered without the network. One {@code get}, and
+	 * none at all if today has no column yet or repeats are written anyway.
+	 * @throws IOException
+	 */
+	private void readTodaysMarks() throws IOException {
+		if (Preferences.getDuplicateSignIn() != DuplicateSignIn.KEEP_FIRST)
+			return;
+		LocalDate today = LocalDate.now();
+		if (!Objects.equals(sharding.tabFor(today), tab))
+			return; // today is on a tab that isn't open yet
+		int col = model.columnForDate(today.format(DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT)));
+		if (col < 0)
+			return;
+		String letters = A1Notation.columnToLetters(col);
+		List<List<Object>> column = metrics.time("readMarks",
+				() -> backend.get(spreadsheetId, on(letters + "2:" + letters), Dimension.COLUMNS));
+		if (column != null && !column.isEmpty())
+			model.markedFrom(today, column.get(0));
+	}
+
+	/**
+	 * Fills the model from the snapshot saved by the last run, if there is
+	 * one and the model hasn't been loaded some other way already.
+	 * @return the snapshot, {@code null} if the model wasn't loaded from one
+	 */
+	private SheetSnapshot loadSnapshot() {
+		if (snapshots == null)
+			return null;
+		synchronized (loadLock) {
+			if (model.isLoaded())
+				return null;
+			try {
+				String key = snapshotKey();
+				SheetSnapshot snapshot = metrics.time("loadSnapshot",
+						() -> SheetSnapshot.load(snapshots, key));
+				if (snapshot != null)
+					model.load(snapshot);
+				return snapshot;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Reads the sheet and brings a model loaded from a snapshot up to date.
+	 * If the sheet still starts with everything in the snapshot only what
+	 * was added since is put in the model. Otherwise the sheet was edited
+	 * by hand and the model is reloaded from scratch. Either way rows and
+	 * columns can be reserved in it again afterwards. Nothing is done if
+	 * a sign in read the sheet first.
+	 * @param snapshot
+	 * 		what the model was loaded from
+	 * @param snapshotTab
+	 * 		the tab it was for, nothing is done if another tab is in use by now
 	 * @throws IOException
 	 */
-	private void appendTodayColumn() throws IOException {
-		String todayString = LocalDate.now().format(DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT));
-		int indexOfLastCol = service.spreadsheets().values()
-				.get(spreadsheetId, "1:1").execute()
-				.getValues()
-				.get(0)
-				.size();
-		String letterOfCol = indexToLetter(indexOfLastCol);
-		System.out.println("Today string: " + todayString);
-		cursor.setCellValue(letterOfCol + "1", todayString);
+	private void reconcile(SheetSnapshot snapshot, String snapshotTab) throws IOException {
+		Lock tabInUse = tabLock.readLock();
+		tabInUse.lock();
+		try {
+			if (Objects.equals(snapshotTab, tab))
+				reconcile(snapshot);
+		} finally {
+			tabInUse.unlock();
+		}
+	}
+
+	private void reconcile(SheetSnapshot snapshot) throws IOException {
+		// read outside the model's lock, so sign ins aren't held up by it
+		readVectors();
+		List<String> headerRow = header.values();
+		List<String> emailColumn = emails.values();
+		boolean emailHeaderPresent = !headerRow.isEmpty() && "Email".equals(headerRow.get(0));
+
+		synchronized (model) {
+			if (!model.isLoaded() || !model.isFromSnapshot())
+				return; // something went wrong meanwhile, or a sign in already read the sheet
+			if (emailHeaderPresent == snapshot.isEmailHeaderPresent()
+					&& snapshot.isPrefixOf(emailColumn, headerRow)) {
+				int known = snapshot.getEmails().size();
+				// index 0 of the column is row 2
+				model.emailsSynced(known + 2, emailColumn.subList(known, emailColumn.size()));
+				model.datesSynced(snapshot.getHeaders().size(),
+						headerRow.subList(snapshot.getHeaders().size(), headerRow.size()));
+				model.reconciled();
+			} else {
+				System.out.println("Snapshot is out of date, reloading.");
+				model.load(emailHeaderPresent, emailColumn, headerRow);
+			}
+		}
+		readTodaysMarks();
+		saveSnapshot();
+	}
+
+	private void reconcileQuietly(SheetSnapshot snapshot, String snapshotTab) {
+		try {
+			reconcile(snapshot, snapshotTab);
+		} catch (Exception e) {
+			// the model may be stale, better to read the sheet on the next sign in
+			e.printStackTrace();
+			invalidateModel();
+		}
+	}
+
+	/**
+	 * Saves the model for the next run. Does nothing if snapshots are off or
+	 * the model isn't loaded, a failed save is only printed.
+	 */
+	private void saveSnapshot() {
+		if (snapshots == null)
+			return;
+		String key;
+		SheetSnapshot snapshot;
+		// so the model and the tab it's for are taken together
+		Lock tabInUse = tabLock.readLock();
+		tabInUse.lock();
+		try {
+			synchronized (model) {
+				if (!model.isLoaded() || spreadsheetId == null)
+					return;
+				key = snapshotKey();
+				snapshot = model.snapshot();
+			}
+		} finally {
+			tabInUse.unlock();
+		}
+		try {
+			metrics.time("saveSnapshot", () -> {
+				snapshot.save(snapshots, key);
+				return null;
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	/**
-	 * Takes the index in a list of columns starting with the A'th column (0
-	 * would be A). "A" -> "Z" = 65 -> 90
+	 * @return what the model's snapshot is saved under, one per tab
+	 */
+	private String snapshotKey() {
+		return tab == null ? spreadsheetId : spreadsheetId + "!" + tab;
+	}
+
+	/**
+	 * Fills the model from the (possibly cached) header and email vectors.
+	 * @throws IOException
+	 */
+	private void reloadModel() throws IOException {
+		synchronized (loadLock) {
+			// the model itself is only locked for the load, not for the network
+			readVectors();
+			List<String> headerRow = header.values();
+			List<String> emailColumn = emails.values();
+			boolean emailHeaderPresent = !headerRow.isEmpty() && "Email".equals(headerRow.get(0));
+			model.load(emailHeaderPresent, emailColumn, headerRow);
+		}
+	}
+
+	/**
+	 * Reads the header row and the email column (whichever aren't cached) in
+	 * one {@code batchGet}, rather than a {@code get} after the other.
+	 * @throws IOException
+	 */
+	private void readVectors() throws IOException {
+		metrics.time("readModel", () -> {
+			SheetsVector.loadAll(Arrays.asList(header, emails));
+			return null;
+		});
+	}
+
+	/**
+	 * Picks up changes someone else (a TA, or another kiosk) made to the
+	 * header row and the email column.
 	 * 
-	 * @param index
-	 * @return the column letter corresponding to the index
+	 * <p>Both are read in full and compared to what the model was loaded
+	 * from (see {@code SheetsVector.sync()}). Emails or dates only added
+	 * at the end are added to the model. Anything else, an email fixed
+	 * in row 300 or a date column inserted in the middle, means the rows
+	 * and columns may have moved, and the model is reloaded from what was
+	 * just read. Anything write-behind holds is sent first, so the kiosk's
+	 * own new rows aren't taken for edits.
+	 * @throws IOException
 	 */
-	private String indexToLetter(int i) {
-		int unicode = i + 65;
-		String c = Character.toString((char) unicode);
-		System.out.println(i + " -> " + c);
-		return c;
+	public void syncRoster() throws IOException {
+		// the roster of the tab in use, it mustn't move halfway through
+		Lock tabInUse = tabLock.readLock();
+		tabInUse.lock();
+		try {
+			if (!model.isLoaded() || model.isFromSnapshot())
+				return; // the first sign in (or the reconcile) will read it all anyway
+			if (writer != null)
+				writer.flush();
+
+			int firstDate = metrics.time("syncHeader", () -> header.sync());
+			int firstNew = metrics.time("syncRoster", () -> emails.sync());
+			if (firstDate < 0 || firstNew < 0) {
+				System.out.println("Roster was edited by hand, reloading.");
+				reloadModel();
+				readTodaysMarks();
+				saveSnapshot();
+				return;
+			}
+			// index 0 of the email vector is row 2, of the header column A
+			int added = model.datesSynced(firstDate, header.slice(firstDate, Integer.MAX_VALUE))
+					+ model.emailsSynced(firstNew + 2, emails.slice(firstNew, Integer.MAX_VALUE));
+			if (added > 0)
+				saveSnapshot();
+			// sign ins at other kiosks since the last sync
+			readTodaysMarks();
+		} finally {
+			tabInUse.unlock();
+		}
 	}
 
-	private boolean todayColumnExists() throws IOException {
-		String todayString = getLastHeader();
-		return LocalDate.now().format(DateTimeFormatter.ofPattern(Preferences.DATE_FORMAT)).equals(todayString);
+	private void syncRosterQuietly() {
+		try {
+			syncRoster();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 
-	private String getLastHeader() throws IOException {
-		// should only be one index because we're querying header row only
-		List<Object> values = service.spreadsheets().values()
-				.get(spreadsheetId, "1:1")
-				.execute()
-				.getValues()
-				.get(0);
-		int size = values.size();
+	/**
+	 * Sends anything write-behind is still holding. Does nothing
+	 * when write-behind is off, every write was already sent.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (writer != null)
+			writer.flush();
+		if (log != null)
+			log.flush();
+	}
 
-		// should return "M/d/uu"
-		return (String) values.get(size - 1);
+	/**
+	 * Rebuilds the email x date grid from the event log onto its own tab
+	 * ("Attendance"), so the sheet still reads like it used to. Does nothing
+	 * when the event log is off, the grid is the sheet.
+	 * @throws IOException
+	 */
+	public void rebuildAttendance() throws IOException {
+		if (log == null || spreadsheetId == null)
+			return;
+		metrics.time("rebuildAttendance", () -> {
+			log.writeAttendance(ATTENDANCE_TAB);
+			return null;
+		});
 	}
 
-	
-	private List<List<Object>> getValuesFromRangeByDimension(String range, Dimension dimension) throws IOException {
-		return service.spreadsheets().values()
-				.get(spreadsheetId, range)
-				.setMajorDimension(dimension.toString())
-				.execute()
-				.getValues();
+	private void rebuildAttendanceQuietly() {
+		try {
+			rebuildAttendance();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 
-	private boolean emailRowExists(String email) throws IOException {
-		return getAllEmails().contains(email);
+	/**
+	 * @param listener
+	 * 		gets the email (lower case) and time of every sign in once it's
+	 * 		written, or queued with write-behind on. Called on the thread
+	 * 		that marked, so it should be quick.
+	 */
+	public void addMarkListener(BiConsumer<String, LocalDateTime> listener) {
+		markListeners.add(listener);
 	}
 
-	private void appendEmailRow(String email) throws IOException {
-		service.spreadsheets().values()
-				.append(spreadsheetId, "A:A", cursor.packValue(email))
-				.setValueInputOption(ValueInputOption.USER_ENTERED.toString())
-				.execute();
+	private void fireMarked(String email, LocalDateTime time) {
+		for (BiConsumer<String, LocalDateTime> listener : markListeners) {
+			try {
+				listener.accept(email, time);
+			} catch (RuntimeException e) {
+				// the sign in went through, a listener doesn't get to say otherwise
+				e.printStackTrace();
+			}
+		}
 	}
 
-	private int getLastEmailRowSheetIndex() throws IOException {
-		List<String> emails = getAllEmails();
+	/**
+	 * Reads the whole grid of today's tab: "Email" and the dates across the
+	 * top, then a row per student. Only as far as the model knows there are
+	 * emails and dates, {@code SheetsVector.PAGE_SIZE} rows per call. With
+	 * the event log on, it's the grid rebuilt from the log.
+	 * @return the grid row by row, blanks are "" (or left off the end of a row)
+	 * @throws IOException
+	 */
+	public List<List<Object>> grid() throws IOException {
+		if (log != null)
+			return metrics.time("readGrid", log::attendance);
+		Lock tabInUse = useTabFor(LocalDate.now());
+		try {
+			loadModel();
+			SheetSnapshot size;
+			synchronized (model) {
+				size = model.snapshot();
+			}
+			int lastRow = size.getEmails().size() + 1;
+			String lastColumn = A1Notation.columnToLetters(Math.max(size.getHeaders().size() - 1, 0));
 
-		// this is not size - 1 because we're starting at A2
-		// the "first" email would start at A2, so we'd need
-		// to return 2.
-		return emails.size() + 1;
+			List<List<Object>> grid = new ArrayList<>(lastRow);
+			for (int first = 1; first <= lastRow; first += SheetsVector.PAGE_SIZE) {
+				int last = Math.min(first + SheetsVector.PAGE_SIZE - 1, lastRow);
+				String range = on("A" + first + ":" + lastColumn + last);
+				List<List<Object>> page = metrics.time("readGrid", () -> backend.get(spreadsheetId, range, Dimension.ROWS));
+				if (page != null)
+					grid.addAll(page);
+				// trailing blank rows aren't sent, keep the row numbers right
+				while (grid.size() < last) {
+					grid.add(new ArrayList<>(0));
+				}
+			}
+			return grid;
+		} finally {
+			tabInUse.unlock();
+		}
 	}
 
-	private List<String> getAllEmails() throws IOException {
-		List<List<Object>> valueValue = getValuesFromRangeByDimension("A2:A1000", Dimension.COLUMNS);
-		List<Object> values = valueValue != null ? valueValue.get(0) : new ArrayList<Object>(0);
-		List<String> emails = values.stream().map(o -> o.toString()).collect(Collectors.toList());
-		System.out.println("Just finished getting emails: " + emails);
-		return emails;
+	/**
+	 * Answered from memory, no network.
+	 * @param email
+	 * @param date
+	 * @return {@code true} if the email was marked on that date since the
+	 * 		sheet was read
+	 */
+	public boolean isSignedIn(String email, LocalDate date) {
+		if (!Objects.equals(sharding.tabFor(date), tab))
+			return false; // the model is for another tab
+		return model.isMarked(email.toLowerCase(), date);
+	}
+
+	/**
+	 * @return the roster as far as this helper knows it, empty until the
+	 * 		sheet (or its snapshot) has been read
+	 */
+	public RosterIndex roster() {
+		return model.roster();
+	}
+
+	private void insertTimeMark(int row, int col, LocalTime time) throws IOException {
+		String timeString = time.format(DateTimeFormatter.ofPattern(Preferences.TIME_FORMAT));
+		metrics.time("updateCell", () -> {
+			writeCell(A1Notation.cell(col, row), timeString);
+			return null;
+		});
+	}
+
+	/**
+	 * Writes a single cell, or queues it when write-behind is on.
+	 * @param cell
+	 * @param value
+	 * @throws IOException
+	 * 		if the write went straight to the network and failed, as the
+	 * 		backend threw it so {@code MarkResult.of()} can tell why
+	 */
+	private void writeCell(String cell, String value) throws IOException {
+		if (writer != null) {
+			writer.queue(on(cell), value);
+		} else {
+			backend.update(spreadsheetId, on(cell + ":" + cell),
+					Collections.singletonList(Collections.<Object>singletonList(value)), ValueInputOption.USER_ENTERED);
+		}
+	}
+
+	/**
+	 * TODO: bug where the formatting on the actual sheet is M-d-uu, not M/d/uu
+	 * 
+	 * @param dateString
+	 * @return the column index of the new date column
+	 * @throws IOException
+	 */
+	private int appendDateColumn(String dateString) throws IOException {
+		int col = reserve(() -> model.addDate(dateString));
+		if (col < 0) // another sign in beat us to it
+			return model.columnForDate(dateString);
+		try {
+			return metrics.time("appendColumn", () -> {
+				ensureGridSize(1, col + 1);
+				header.set(col, dateString);
+				return col;
+			});
+		} catch (IOException | RuntimeException e) {
+			model.releaseDate(dateString);
+			throw e;
+		}
 	}
 
-	private List<String> getAllDates() throws IOException {
-		// skip "A" because we know it's "Emails"
-		List<Object> values = getValuesFromRangeByDimension("B1:Z1", Dimension.ROWS).get(0);
-		List<String> dates = values.stream().map(o -> o.toString()).collect(Collectors.toList());
-		return dates;
+	/**
+	 * Writes the email into the row after the last email, rather than
+	 * {@code append()}-ing it, so the model knows exactly where it went.
+	 * @param email
+	 * @return the sheet row number of the new email
+	 * @throws IOException
+	 */
+	private int appendEmailRow(String email) throws IOException {
+		int row = reserve(() -> model.addEmail(email));
+		if (row < 0) // another sign in beat us to it
+			return model.rowForEmail(email);
+		try {
+			return metrics.time("appendRow", () -> {
+				ensureGridSize(row, 1);
+				// index 0 of the vector is row 2
+				emails.set(row - 2, email);
+				return row;
+			});
+		} catch (IOException | RuntimeException e) {
+			model.releaseEmail(email);
+			throw e;
+		}
 	}
 	
-	private boolean emailHeaderIsPresent() {
-		Optional<String> header = cursor.cellValue("A1");
-		if(header.isPresent()) {
-			 return header.get().equals("Email");
+	/**
+	 * Reserves a row or column in the model, loading it again first if it
+	 * was emptied since the caller looked (or is only a snapshot).
+	 * @param reservation
+	 * 		{@code model.addEmail()} or {@code model.addDate()}
+	 * @return whatever the reservation answered, never {@code NOT_LOADED}
+	 * @throws IOException
+	 */
+	private int reserve(IntSupplier reservation) throws IOException {
+		int reserved;
+		while ((reserved = reservation.getAsInt()) == SheetModel.NOT_LOADED) {
+			loadModel(true);
 		}
-		return false;
+		return reserved;
 	}
 	
+	/**
+	 * Writing outside the tab's grid (past row 1000 or column Z on a new
+	 * tab) is an error, not an automatic resize, so grow the grid first.
+	 * @param rows
+	 * 		rows needed
+	 * @param columns
+	 * 		columns needed
+	 * @throws IOException
+	 */
+	private synchronized void ensureGridSize(int rows, int columns) throws IOException {
+		if (sheetProperties == null)
+			sheetProperties = getSheetProperties();
+		GridProperties grid = sheetProperties.getGridProperties();
+
+		try {
+			if (grid.getRowCount() < rows) {
+				int add = rows - grid.getRowCount() + GRID_ROW_HEADROOM;
+				backend.appendDimension(spreadsheetId, sheetProperties.getSheetId(), Dimension.ROWS, add);
+				grid.setRowCount(grid.getRowCount() + add);
+			}
+			if (grid.getColumnCount() < columns) {
+				int add = columns - grid.getColumnCount() + GRID_COLUMN_HEADROOM;
+				backend.appendDimension(spreadsheetId, sheetProperties.getSheetId(), Dimension.COLUMNS, add);
+				grid.setColumnCount(grid.getColumnCount() + add);
+			}
+		} catch (IOException e) {
+			sheetProperties = null; // don't know how big it is anymore
+			throw e;
+		}
+	}
+
 	private SheetProperties getSheetProperties() throws IOException {
-		return service.spreadsheets().get(spreadsheetId).execute().getSheets().get(0).getProperties();
+		List<SheetProperties> tabs = backend.sheets(spreadsheetId);
+		if (tab == null)
+			return tabs.get(0);
+		for (SheetProperties properties : tabs) {
+			if (tab.equals(properties.getTitle()))
+				return properties;
+		}
+		throw new IOException("There is no tab called \"" + tab + "\".");
 	}
 }
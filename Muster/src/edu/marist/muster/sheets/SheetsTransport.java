@@ -0,0 +1,58 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import com.google.api.client.googleapis.apache.GoogleApacheHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+
+import edu.marist.muster.Preferences;
+
+/**
+ * <p>How Muster talks HTTP to Google, tuned for slow campus Wi-Fi.
+ * 	<li>Apache's pooled, keep-alive connections instead of
+ * 		{@code HttpURLConnection}, so sign ins reuse one TLS connection
+ * 		instead of handshaking again and again.
+ * 	<li>Connect and read timeouts from {@code Preferences}, so a dead
+ * 		network fails (and gets retried) instead of hanging a worker.
+ * 	<li>Gzip both ways comes from the client library (it gzips request
+ * 		bodies, sends {@code Accept-Encoding: gzip} and puts "(gzip)" in the
+ * 		User-Agent, which Google wants before it compresses), don't turn
+ * 		it off with {@code setDisableGZipContent()}.
+ *
+ * <p>The other half is asking for less, see the {@code fields} masks in
+ * {@code GoogleSheetsBackend}.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class SheetsTransport {
+
+	/// Not meant to be instantiated
+	private SheetsTransport() {}
+
+	/**
+	 * @return a pooled transport that trusts Google's certificates
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public static HttpTransport newTransport() throws GeneralSecurityException, IOException {
+		// a thread safe connection manager, connections are kept alive and reused
+		return GoogleApacheHttpTransport.newTrustedTransport();
+	}
+
+	/**
+	 * @param credential
+	 * 		sets up authorization, and still does
+	 * @return sets the timeouts on every request as well
+	 */
+	public static HttpRequestInitializer initializer(HttpRequestInitializer credential) {
+		return (request) -> {
+			if (credential != null)
+				credential.initialize(request);
+			request.setConnectTimeout(Preferences.getConnectTimeoutMillis());
+			request.setReadTimeout(Preferences.getReadTimeoutMillis());
+		};
+	}
+}
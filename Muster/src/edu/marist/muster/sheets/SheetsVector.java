@@ -0,0 +1,479 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+import edu.marist.muster.metrics.SheetsMetrics;
+
+/**
+ * <p>Quick access to a whole row or column of a Google Sheet, the
+ * {@code SheetsCursor} for more than one cell.
+ * 	<li>The vector is read once and then served from memory.
+ * 	<li>{@code set()} and {@code append()} write a single cell and
+ * 		update the cached copy, so it doesn't have to be read again.
+ * 	<li>{@code sync()} picks up cells added to the end by someone else,
+ * 		and notices any other edit.
+ * 	<li>Reads are paged, {@code PAGE_SIZE} cells at a time, so there is
+ * 		no limit on how long the vector is.
+ * 	<li>{@code loadAll()} reads several vectors in one round trip.
+ * 	<li>Reads and writes are synchronous.
+ *
+ * <p>Indexes are positions within the vector, not the sheet: index 0 of
+ * {@code SheetsVector.column(..., 0, 2, ...)} is A2.
+ *
+ * @author Tom Magnusson
+ *
+ * @param <T>
+ * 		The expected value of the cells (usually String is applicable).
+ */
+public final class SheetsVector<T> {
+
+	/**
+	 * Access to Google Sheets (or something pretending to be it)
+	 */
+	private SheetsBackend backend;
+
+	/**
+	 * The spreadsheet's id, found in the url of the sheet
+	 */
+	private String spreadsheetId;
+
+	/**
+	 * The tab the vector is on, {@code null} for the first tab.
+	 */
+	private String sheet;
+
+	/**
+	 * {@code ROWS} for a row (like the header), {@code COLUMNS} for a column
+	 * (like the emails).
+	 */
+	private final Dimension dimension;
+
+	/**
+	 * The row number of a row vector, or the column index of a column vector.
+	 */
+	private final int line;
+
+	/**
+	 * Where the vector starts: the column index of a row vector, or the
+	 * row number of a column vector.
+	 */
+	private final int start;
+
+	/**
+	 * @see SheetsCursor
+	 */
+	private Function<Object, T> transform;
+
+	/**
+	 * How many cells one read asks for, big rosters come in several pages
+	 * instead of one huge response.
+	 */
+	static final int PAGE_SIZE = 5000;
+
+	/**
+	 * When set, writes are queued instead of sent one at a time.
+	 */
+	private BatchWriter writer;
+
+	/**
+	 * The cells, {@code null} for blanks. {@code null} until first read.
+	 */
+	private List<T> cache;
+
+	private SheetsVector(SheetsBackend backend, String spreadsheetId, Dimension dimension, int line, int start,
+			Function<Object, T> transform) {
+		this.backend = backend;
+		this.spreadsheetId = spreadsheetId;
+		this.dimension = dimension;
+		this.line = line;
+		this.start = start;
+		this.transform = transform;
+	}
+
+	/**
+	 * @param row
+	 * 		the row number, 1 is the header
+	 * @param firstColumn
+	 * 		index of the first column, 0 is "A"
+	 * @return a vector along the row
+	 */
+	public static <T> SheetsVector<T> row(SheetsBackend backend, String spreadsheetId, int row, int firstColumn,
+			Function<Object, T> transform) {
+		return new SheetsVector<>(backend, spreadsheetId, Dimension.ROWS, row, firstColumn, transform);
+	}
+
+	/**
+	 * @param column
+	 * 		the column index, 0 is "A"
+	 * @param firstRow
+	 * 		the row number of the first cell
+	 * @return a vector down the column
+	 */
+	public static <T> SheetsVector<T> column(SheetsBackend backend, String spreadsheetId, int column, int firstRow,
+			Function<Object, T> transform) {
+		return new SheetsVector<>(backend, spreadsheetId, Dimension.COLUMNS, column, firstRow, transform);
+	}
+
+	/**
+	 * @return every cell, read from the network the first time only
+	 * @throws IOException
+	 */
+	public synchronized List<T> values() throws IOException {
+		load();
+		return Collections.unmodifiableList(new ArrayList<>(cache));
+	}
+
+	/**
+	 * @param from
+	 * 		inclusive
+	 * @param to
+	 * 		exclusive, clipped to the size
+	 * @return part of the vector, from the cached copy
+	 * @throws IOException
+	 */
+	public synchronized List<T> slice(int from, int to) throws IOException {
+		load();
+		to = Math.min(to, cache.size());
+		if (from >= to)
+			return new ArrayList<>(0);
+		return new ArrayList<>(cache.subList(from, to));
+	}
+
+	/**
+	 * @param index
+	 * @return the cell, empty if it's blank or past the end
+	 * @throws IOException
+	 */
+	public synchronized Optional<T> get(int index) throws IOException {
+		load();
+		return index < cache.size() ? Optional.ofNullable(cache.get(index)) : Optional.empty();
+	}
+
+	/**
+	 * @param value
+	 * @return the index of the first cell equal to the value, or {@code -1}
+	 * @throws IOException
+	 */
+	public synchronized int indexOf(T value) throws IOException {
+		load();
+		return cache.indexOf(value);
+	}
+
+	/**
+	 * @return how many cells there are up to the last non blank one
+	 * @throws IOException
+	 */
+	public synchronized int size() throws IOException {
+		load();
+		return cache.size();
+	}
+
+	/**
+	 * Writes a single cell of the vector and updates the cached copy.
+	 * @param index
+	 * @param value
+	 * @throws IOException
+	 */
+	public void set(int index, T value) throws IOException {
+		String cell = cellAt(index);
+		if (writer != null) {
+			writer.queue(on(cell), value);
+		} else {
+			List<List<Object>> outer = new ArrayList<List<Object>>(1);
+			outer.add(Arrays.asList((Object) value));
+			backend.update(spreadsheetId, on(cell + ":" + cell), outer, ValueInputOption.USER_ENTERED);
+		}
+		cached(index, value);
+	}
+
+	/**
+	 * Writes the value after the last cell.
+	 * @param value
+	 * @return the index it was written to
+	 * @throws IOException
+	 */
+	public int append(T value) throws IOException {
+		int index;
+		synchronized (this) {
+			load();
+			index = cache.size();
+			// hold the spot so a second append doesn't pick it too
+			cache.add(null);
+		}
+		set(index, value);
+		return index;
+	}
+
+	/**
+	 * Reads the whole vector again and compares it to the cached copy, so an
+	 * edit anywhere in it is noticed, not just at the top.
+	 * @return the index of the first new cell (the old size) if the cells
+	 * 		were only added to, or {@code -1} if anything else changed and
+	 * 		the cache was replaced
+	 * @throws IOException
+	 */
+	public synchronized int sync() throws IOException {
+		if (cache == null) {
+			load();
+			return -1;
+		}
+		List<T> read = new ArrayList<>();
+		forEachPage(PAGE_SIZE, read::addAll);
+		int known = cache.size();
+		if (read.size() < known || !read.subList(0, known).equals(cache)) {
+			cache = read;
+			return -1;
+		}
+		cache.addAll(read.subList(known, read.size()));
+		return known;
+	}
+
+	/**
+	 * Reads whatever was added after the cached cells, and adds it to the cache.
+	 * Cheaper than {@code sync()}, but an edit below the first few is missed.
+	 *
+	 * <p>One {@code batchGet} reads the first {@code checkCount} cells along with
+	 * the new ones. If the first cells don't match the cache anymore, the vector
+	 * was edited by hand and it is read again from scratch.
+	 * @param checkCount
+	 * @return the index of the first new cell, or {@code -1} if the whole vector
+	 * 		was read again
+	 * @throws IOException
+	 */
+	public synchronized int sync(int checkCount) throws IOException {
+		if (cache == null) {
+			load();
+			return -1;
+		}
+
+		int known = cache.size();
+		List<ValueRange> ranges;
+		try {
+			ranges = backend.batchGet(spreadsheetId,
+					Arrays.asList(rangeFrom(0, checkCount), rangeFrom(known, -1)), dimension);
+		} catch (OutsideGridException e) {
+			// the vector fills the sheet to the edge, nothing can have been added after it
+			return known;
+		}
+
+		List<T> top = unpack(ranges.get(0).getValues());
+		List<T> expected = cache.subList(0, Math.min(checkCount, known));
+		if (top.size() < expected.size() || !top.subList(0, expected.size()).equals(expected)) {
+			refresh();
+			return -1;
+		}
+		cache.addAll(unpack(ranges.get(1).getValues()));
+		return known;
+	}
+
+	/**
+	 * Throws out the cached copy and reads the vector again.
+	 * @throws IOException
+	 */
+	public synchronized void refresh() throws IOException {
+		cache = null;
+		load();
+	}
+
+	/**
+	 * Throws out the cached copy, the next read goes to the network.
+	 */
+	public synchronized void invalidate() {
+		cache = null;
+	}
+
+	/**
+	 * @param index
+	 * @return the A1 notation of the cell, e.g. "A5"
+	 */
+	public String cellAt(int index) {
+		if (dimension == Dimension.ROWS)
+			return A1Notation.cell(start + index, line);
+		return A1Notation.cell(line, start + index);
+	}
+
+	public synchronized void setSpreadsheetId(String id) {
+		if (id != null && !id.equals(spreadsheetId))
+			cache = null; // a different sheet, the copy is for the old one
+		this.spreadsheetId = id;
+	}
+
+	/**
+	 * @param title
+	 * 		the tab the vector is on from now on, {@code null} for the first tab
+	 */
+	public synchronized void setSheet(String title) {
+		if (title == null ? sheet != null : !title.equals(sheet))
+			cache = null; // same row or column, different tab
+		this.sheet = title;
+	}
+
+	public void setBatchWriter(BatchWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Reads the whole vector a page at a time, handing each page over as soon
+	 * as it arrives. Nothing is cached, meant for going over a big roster once.
+	 * @param pageSize
+	 * 		how many cells to ask for at a time
+	 * @param consumer
+	 * 		gets each page in order, {@code null} for blank cells
+	 * @throws IOException
+	 */
+	public void forEachPage(int pageSize, Consumer<List<T>> consumer) throws IOException {
+		int from = 0;
+		while (true) {
+			List<T> page = readPage(from, pageSize);
+			if (!page.isEmpty())
+				consumer.accept(page);
+			// trailing blanks aren't sent back, so a short page is the last one
+			if (page.size() < pageSize)
+				return;
+			from += pageSize;
+		}
+	}
+
+	private void load() throws IOException {
+		SheetsMetrics.getInstance().vectorRead(cache != null);
+		if (cache != null)
+			return;
+		List<T> loaded = new ArrayList<>();
+		forEachPage(PAGE_SIZE, loaded::addAll);
+		cache = loaded;
+	}
+
+	/**
+	 * Reads several vectors of one spreadsheet together: the first page of
+	 * every one in a single {@code batchGet}, then the rest of any that
+	 * filled its first page a page at a time, like {@code values()}. So the
+	 * header and a roster of up to {@code PAGE_SIZE} are one round trip
+	 * instead of one each. Vectors already read are left alone.
+	 * @param vectors
+	 * 		on the same spreadsheet
+	 * @throws IOException
+	 */
+	public static void loadAll(List<? extends SheetsVector<?>> vectors) throws IOException {
+		List<SheetsVector<?>> unread = new ArrayList<>(vectors.size());
+		List<String> ranges = new ArrayList<>(vectors.size());
+		for (SheetsVector<?> vector : vectors) {
+			boolean loaded = vector.isLoaded();
+			SheetsMetrics.getInstance().vectorRead(loaded);
+			if (!loaded) {
+				unread.add(vector);
+				ranges.add(vector.rangeFrom(0, PAGE_SIZE));
+			}
+		}
+		if (unread.isEmpty())
+			return;
+
+		SheetsVector<?> first = unread.get(0);
+		// ROWS for all of them, a column comes back as a row per cell
+		List<ValueRange> pages = first.backend.batchGet(first.spreadsheetId, ranges, Dimension.ROWS);
+		for (int i = 0; i < unread.size(); i++) {
+			unread.get(i).loaded(pages.get(i).getValues());
+		}
+	}
+
+	private synchronized boolean isLoaded() {
+		return cache != null;
+	}
+
+	/**
+	 * Takes the first page read by {@code loadAll()} and reads the rest.
+	 * @param firstPage
+	 * 		row by row
+	 * @throws IOException
+	 */
+	private synchronized void loaded(List<List<Object>> firstPage) throws IOException {
+		if (cache != null)
+			return; // read some other way in the meantime
+		List<T> loaded = dimension == Dimension.ROWS ? unpack(firstPage) : unpackColumn(firstPage);
+		// trailing blanks aren't sent back, so a short page is the last one
+		for (int from = PAGE_SIZE; loaded.size() == from; from += PAGE_SIZE) {
+			loaded.addAll(readPage(from, PAGE_SIZE));
+		}
+		cache = loaded;
+	}
+
+	/**
+	 * @return up to {@code count} cells from {@code from}, empty past the end of the sheet
+	 */
+	private List<T> readPage(int from, int count) throws IOException {
+		try {
+			return unpack(backend.get(spreadsheetId, rangeFrom(from, count), dimension));
+		} catch (OutsideGridException e) {
+			// asking for rows (or columns) the sheet doesn't have is an error,
+			// not an empty response. The first page is always inside the sheet.
+			if (from > 0)
+				return new ArrayList<>(0);
+			throw e;
+		}
+	}
+
+	private synchronized void cached(int index, T value) {
+		if (cache == null)
+			return; // never read, nothing to keep up to date
+		while (cache.size() <= index) {
+			cache.add(null);
+		}
+		cache.set(index, value);
+	}
+
+	/**
+	 * @param from
+	 * 		index within the vector
+	 * @param count
+	 * 		how many cells, or {@code -1} for everything to the end
+	 * @return the A1 range, on the vector's tab
+	 */
+	private String rangeFrom(int from, int count) {
+		String first = cellAt(from);
+		if (count < 0) {
+			// open ended, "A5:A" or "C1:1"
+			return on(first + ":" + (dimension == Dimension.ROWS ? Integer.toString(line) : A1Notation.columnToLetters(line)));
+		}
+		return on(first + ":" + cellAt(from + count - 1));
+	}
+
+	private String on(String range) {
+		return sheet == null ? range : A1Notation.qualify(sheet, range);
+	}
+
+	/**
+	 * Unpacks a column that was read row by row, one cell per row.
+	 */
+	private List<T> unpackColumn(List<List<Object>> rows) {
+		List<T> unpacked = new ArrayList<>();
+		if (rows == null)
+			return unpacked;
+		for (List<Object> row : rows) {
+			Object o = row == null || row.isEmpty() ? null : row.get(0);
+			unpacked.add(o == null || "".equals(o) ? null : transform.apply(o));
+		}
+		return unpacked;
+	}
+
+	/**
+	 * Unpacks the single row or column of a response.
+	 */
+	private List<T> unpack(List<List<Object>> values) {
+		List<T> unpacked = new ArrayList<>();
+		if (values == null || values.isEmpty() || values.get(0) == null)
+			return unpacked;
+		for (Object o : values.get(0)) {
+			// blanks come back as empty strings
+			unpacked.add(o == null || "".equals(o) ? null : transform.apply(o));
+		}
+		return unpacked;
+	}
+}
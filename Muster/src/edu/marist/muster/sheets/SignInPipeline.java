@@ -0,0 +1,217 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.marist.muster.Preferences;
+import edu.marist.muster.journal.SignIn;
+import edu.marist.muster.journal.SignInJournal;
+import edu.marist.muster.metrics.SheetsMetrics;
+
+/**
+ * <p>Takes sign ins from the UI and gets them written, several at a time.
+ * 	<li>Every {@code submit()} gets its own job and its own future, no sign in
+ * 		ever cancels another one.
+ * 	<li>Jobs wait in a bounded queue and are run by a fixed pool of workers.
+ * 	<li>When the queue is full the sign in fails right away instead of
+ * 		waiting forever.
+ * 	<li>With a journal set, a job is done once the sign in is on disk, the
+ * 		{@code JournalReplayer} gets it onto the sheet.
+ * 	<li>The helper can still be starting up (see {@code SheetsHelper.startAsync()}),
+ * 		sign ins that need it wait in the queue until it's ready.
+ *
+ * <p>The futures complete on a worker thread, use {@code Platform.runLater()}
+ * to touch the UI from them.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class SignInPipeline implements SignInService {
+
+	/**
+	 * Done once Google Sheets is ready to be written to.
+	 */
+	private final CompletableFuture<SheetsHelper> helper;
+
+	/**
+	 * When set, sign ins only go as far as the journal.
+	 */
+	private volatile SignInJournal journal;
+
+	/**
+	 * The workers and their bounded queue of jobs.
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Jobs submitted but not finished yet, queued or running.
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * @param helper
+	 * @param workers
+	 * 		how many sign ins can be written at the same time
+	 * @param queueCapacity
+	 * 		how many sign ins can wait for a worker
+	 */
+	public SignInPipeline(SheetsHelper helper, int workers, int queueCapacity) {
+		this(CompletableFuture.completedFuture(helper), workers, queueCapacity);
+	}
+
+	/**
+	 * @param helper
+	 * 		a helper that may still be starting up
+	 * @param workers
+	 * 		how many sign ins can be written at the same time
+	 * @param queueCapacity
+	 * 		how many sign ins can wait for a worker
+	 */
+	public SignInPipeline(CompletableFuture<SheetsHelper> helper, int workers, int queueCapacity) {
+		this.helper = helper;
+
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory threads = (r) -> {
+			Thread t = new Thread(r, "sign-in-worker-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), threads);
+		SheetsMetrics.getInstance().setSignInQueueDepth(this::inFlight);
+	}
+
+	public void setJournal(SignInJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Queues the email to be marked here now.
+	 * @param email
+	 * @return completes with the email once it's signed in, or exceptionally
+	 * 		if it couldn't be (including when the queue is full)
+	 */
+	@Override
+	public CompletableFuture<String> submit(String email) {
+		return submit(email, LocalDateTime.now());
+	}
+
+	/**
+	 * Queues the email to be marked here at the given time, e.g. a sign in
+	 * made on another kiosk a moment ago.
+	 * @param email
+	 * @param time
+	 * @return see {@code submit(String)}
+	 */
+	public CompletableFuture<String> submit(String email, LocalDateTime time) {
+		CompletableFuture<String> result = new CompletableFuture<>();
+		inFlight.incrementAndGet();
+		try {
+			executor.execute(() -> {
+				Throwable error = null;
+				try {
+					signIn(email, time);
+				} catch (Throwable t) {
+					error = t;
+				}
+				// done before the callbacks run, so they see the right count
+				inFlight.decrementAndGet();
+				if (error == null) {
+					result.complete(email);
+				} else {
+					result.completeExceptionally(error);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			inFlight.decrementAndGet();
+			result.completeExceptionally(new IOException("Too many sign ins waiting, " + email + " was not queued.", e));
+		}
+		return result;
+	}
+
+	/**
+	 * @return how many sign ins are queued or being written
+	 */
+	@Override
+	public int inFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return {@code false} until the helper has started
+	 */
+	@Override
+	public boolean isSignedIn(String email) {
+		if (!helper.isDone() || helper.isCompletedExceptionally())
+			return false;
+		return helper.join().isSignedIn(email, LocalDate.now());
+	}
+
+	/**
+	 * @return the helper's roster, {@code null} until it has started
+	 */
+	@Override
+	public RosterIndex roster() {
+		if (!helper.isDone() || helper.isCompletedExceptionally())
+			return null;
+		return helper.join().roster();
+	}
+
+	/**
+	 * @return {@code true} once the helper has started, successfully or not
+	 */
+	public boolean isReady() {
+		return helper.isDone();
+	}
+
+	/**
+	 * Stops taking sign ins, the ones already queued still finish.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private void signIn(String email, LocalDateTime time) throws IOException {
+		String sheetId = Preferences.getSheetID();
+		if (sheetId == null)
+			throw new IllegalStateException("No Google sheet has been set.");
+
+		SignInJournal journal = this.journal;
+		if (journal != null) {
+			// on disk is good enough, the replayer takes it from here
+			journal.append(new SignIn(sheetId, email.toLowerCase(), time));
+			return;
+		}
+
+		SheetsHelper helper = awaitHelper();
+		helper.setSpreadSheetId(sheetId);
+		if (helper.mark(email, time) != MarkResult.MARKED)
+			throw new IOException(email + " could not be marked.");
+	}
+
+	/**
+	 * @return the helper, waiting for it to start if it hasn't yet
+	 * @throws IOException
+	 * 		if it couldn't start
+	 */
+	private SheetsHelper awaitHelper() throws IOException {
+		try {
+			return helper.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Google Sheets is not available.", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package edu.marist.muster.sheets;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Somewhere to send sign ins: this kiosk's own {@code SignInPipeline}, or
+ * another kiosk that does the writing (see {@code RemoteSignInClient}).
+ *
+ * @author Tom Magnusson
+ *
+ */
+public interface SignInService {
+
+	/**
+	 * Queues the email to be marked here now.
+	 * @param email
+	 * @return completes with the email once it's signed in, or exceptionally
+	 * 		if it couldn't be
+	 */
+	CompletableFuture<String> submit(String email);
+
+	/**
+	 * @return how many sign ins are queued or being written
+	 */
+	int inFlight();
+
+	/**
+	 * Answered locally, cheap enough to ask before every submit.
+	 * @param email
+	 * @return {@code true} if the email is known to be signed in today
+	 */
+	boolean isSignedIn(String email);
+
+	/**
+	 * @return the roster to check typed emails against, {@code null} if
+	 * 		there isn't one here
+	 */
+	RosterIndex roster();
+}
@@ -0,0 +1,185 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+/**
+ * <p>Adds up finished tabs (see {@code TabSharding}) onto a summary tab, so
+ * how often everyone came over the years can be read off one grid without
+ * going through every month.
+ * 	<li>The summary is "Email" and then one column per finished tab, the
+ * 		number of dates the student signed in on that tab.
+ * 	<li>Summing a tab again overwrites its column, so it's safe to repeat.
+ * 	<li>The finished tab itself is left as it is, it's the record.
+ * 	<li>Reads the finished tab {@code SheetsVector.PAGE_SIZE} rows per call,
+ * 		then writes the summary in one {@code batchUpdate}.
+ *
+ * <p>Synchronous, meant to run in the background.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class TabArchiver {
+
+	/**
+	 * Access to Google Sheets (or something pretending to be it)
+	 */
+	private final SheetsBackend backend;
+
+	/**
+	 * The summary tab's title, e.g. "Summary".
+	 */
+	private final String summaryTitle;
+
+	public TabArchiver(SheetsBackend backend, String summaryTitle) {
+		this.backend = backend;
+		this.summaryTitle = summaryTitle;
+	}
+
+	/**
+	 * Counts every student's sign ins on a tab and writes them into the
+	 * tab's column of the summary, making the summary if it isn't there.
+	 * @param spreadsheetId
+	 * @param title
+	 * 		the finished tab
+	 * @return how many students signed in at least once on the tab
+	 * @throws IOException
+	 */
+	public synchronized int archive(String spreadsheetId, String title) throws IOException {
+		SheetProperties tab = findTab(spreadsheetId, title);
+		if (tab == null)
+			return 0;
+		Map<String, Integer> counts = count(spreadsheetId, tab);
+		if (counts.isEmpty())
+			return 0; // nobody signed in on it (a roster with no dates yet), nothing to add up
+
+		SheetProperties summary = findTab(spreadsheetId, summaryTitle);
+		if (summary == null)
+			summary = backend.addSheet(spreadsheetId, summaryTitle);
+
+		List<Object> header = firstLine(backend.get(spreadsheetId,
+				A1Notation.qualify(summaryTitle, "1:1"), Dimension.ROWS));
+		List<Object> emails = firstLine(backend.get(spreadsheetId,
+				A1Notation.qualify(summaryTitle, "A2:A"), Dimension.COLUMNS));
+
+		int column = header.indexOf(title);
+		if (column < 1)
+			column = Math.max(header.size(), 1);
+
+		// the rows already on the summary keep their place, new students go at the bottom
+		Map<String, Integer> rows = new HashMap<>();
+		for (int i = 0; i < emails.size(); i++) {
+			if (!"".equals(emails.get(i)))
+				rows.putIfAbsent(emails.get(i).toString(), i + 2);
+		}
+		List<Object> newEmails = new ArrayList<>();
+		int lastRow = emails.size() + 1;
+		for (String email : counts.keySet()) {
+			if (!rows.containsKey(email)) {
+				rows.put(email, ++lastRow);
+				newEmails.add(email);
+			}
+		}
+
+		// every row gets a number, 0 included, so an old count can't be left behind
+		List<List<Object>> totals = new ArrayList<>(lastRow - 1);
+		for (int row = 2; row <= lastRow; row++) {
+			totals.add(Collections.<Object>singletonList(0));
+		}
+		for (Map.Entry<String, Integer> count : counts.entrySet()) {
+			totals.set(rows.get(count.getKey()) - 2, Collections.<Object>singletonList(count.getValue()));
+		}
+
+		grow(spreadsheetId, summary, lastRow, column + 1);
+
+		List<ValueRange> data = new ArrayList<>();
+		String columnLetters = A1Notation.columnToLetters(column);
+		data.add(new ValueRange().setRange(A1Notation.qualify(summaryTitle, "A1:A1"))
+				.setValues(Collections.singletonList(Collections.<Object>singletonList("Email"))));
+		data.add(new ValueRange().setRange(A1Notation.qualify(summaryTitle, columnLetters + "1:" + columnLetters + "1"))
+				.setValues(Collections.singletonList(Collections.<Object>singletonList(title))));
+		if (!newEmails.isEmpty()) {
+			List<List<Object>> rowsOfEmails = new ArrayList<>(newEmails.size());
+			for (Object email : newEmails) {
+				rowsOfEmails.add(Collections.singletonList(email));
+			}
+			int first = lastRow - newEmails.size() + 1;
+			data.add(new ValueRange().setRange(A1Notation.qualify(summaryTitle, "A" + first + ":A" + lastRow))
+					.setValues(rowsOfEmails));
+		}
+		if (!totals.isEmpty()) {
+			data.add(new ValueRange()
+					.setRange(A1Notation.qualify(summaryTitle, columnLetters + "2:" + columnLetters + lastRow))
+					.setValues(totals));
+		}
+		backend.batchUpdate(spreadsheetId, data, ValueInputOption.USER_ENTERED);
+		return counts.size();
+	}
+
+	/**
+	 * @return email -> how many of the tab's dates it has a time under,
+	 * 		students who never came are left out
+	 */
+	private Map<String, Integer> count(String spreadsheetId, SheetProperties tab) throws IOException {
+		GridProperties grid = tab.getGridProperties();
+		String lastColumn = A1Notation.columnToLetters(Math.max(grid.getColumnCount() - 1, 0));
+		Map<String, Integer> counts = new LinkedHashMap<>();
+		for (int first = 2; first <= grid.getRowCount(); first += SheetsVector.PAGE_SIZE) {
+			int last = Math.min(first + SheetsVector.PAGE_SIZE - 1, grid.getRowCount());
+			List<List<Object>> page = backend.get(spreadsheetId,
+					A1Notation.qualify(tab.getTitle(), "A" + first + ":" + lastColumn + last), Dimension.ROWS);
+			if (page == null)
+				continue; // all blank, trailing rows aren't sent
+			for (List<Object> row : page) {
+				if (row.isEmpty() || "".equals(row.get(0)))
+					continue;
+				int dates = 0;
+				for (int i = 1; i < row.size(); i++) {
+					if (!"".equals(row.get(i)))
+						dates++;
+				}
+				if (dates > 0)
+					counts.merge(row.get(0).toString().toLowerCase(), dates, Integer::sum);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Writing outside the grid is an error, grow it first.
+	 */
+	private void grow(String spreadsheetId, SheetProperties tab, int rows, int columns) throws IOException {
+		GridProperties grid = tab.getGridProperties();
+		if (grid.getRowCount() < rows)
+			backend.appendDimension(spreadsheetId, tab.getSheetId(), Dimension.ROWS, rows - grid.getRowCount());
+		if (grid.getColumnCount() < columns)
+			backend.appendDimension(spreadsheetId, tab.getSheetId(), Dimension.COLUMNS,
+					columns - grid.getColumnCount());
+	}
+
+	private SheetProperties findTab(String spreadsheetId, String title) throws IOException {
+		for (SheetProperties properties : backend.sheets(spreadsheetId)) {
+			if (title.equals(properties.getTitle()))
+				return properties;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the only row (or column) of a response, empty if there wasn't one
+	 */
+	private static List<Object> firstLine(List<List<Object>> values) {
+		if (values == null || values.isEmpty() || values.get(0) == null)
+			return new ArrayList<>(0);
+		return values.get(0);
+	}
+}
@@ -0,0 +1,93 @@
+package edu.marist.muster.sheets;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Which tab a date's sign ins go on, so the grid being signed in to only
+ * ever holds a month (or a term) of dates instead of growing forever.
+ * 
+ *  <li>{@code NONE} keeps everything on the first tab, like always.
+ *  <li>{@code MONTH} puts each month on its own tab, "2017-03".
+ *  <li>{@code TERM} puts each term on its own tab, "Spring 2017"
+ *  	(January to May), "Summer 2017" (June to August), "Fall 2017".
+ * 
+ * <p>A new tab starts with the roster of the one before it (by date, not
+ * by where it sits on the sheet), finished tabs are added up onto a
+ * "Summary" tab (see {@code TabArchiver}).
+ * 
+ * @author Tom Magnusson
+ *
+ */
+public enum TabSharding {
+	NONE {
+		@Override
+		public String tabFor(LocalDate date) {
+			return null;
+		}
+
+		@Override
+		public LocalDate startOf(String title) {
+			return null;
+		}
+	},
+	MONTH {
+		@Override
+		public String tabFor(LocalDate date) {
+			return date.format(MONTH_TITLE);
+		}
+
+		@Override
+		public LocalDate startOf(String title) {
+			try {
+				return YearMonth.parse(title, MONTH_TITLE).atDay(1);
+			} catch (DateTimeParseException e) {
+				return null;
+			}
+		}
+	},
+	TERM {
+		@Override
+		public String tabFor(LocalDate date) {
+			int month = date.getMonthValue();
+			String term = month <= 5 ? "Spring" : month <= 8 ? "Summer" : "Fall";
+			return term + " " + date.getYear();
+		}
+
+		@Override
+		public LocalDate startOf(String title) {
+			String[] parts = title.split(" ");
+			if (parts.length != 2 || !parts[1].matches("\\d{4}"))
+				return null;
+			int year = Integer.parseInt(parts[1]);
+			switch (parts[0]) {
+			case "Spring":
+				return LocalDate.of(year, 1, 1);
+			case "Summer":
+				return LocalDate.of(year, 6, 1);
+			case "Fall":
+				return LocalDate.of(year, 9, 1);
+			default:
+				return null;
+			}
+		}
+	};
+
+	private static final DateTimeFormatter MONTH_TITLE = DateTimeFormatter.ofPattern("uuuu-MM");
+
+	/**
+	 * @param date
+	 * @return the title of the tab the date's sign ins go on, {@code null}
+	 * 		for the first tab
+	 */
+	public abstract String tabFor(LocalDate date);
+
+	/**
+	 * @param title
+	 * @return the first date that goes on the tab, {@code null} if the
+	 * 		title isn't one {@code tabFor()} would give
+	 */
+	public abstract LocalDate startOf(String title);
+}
@@ -0,0 +1,203 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+import edu.marist.muster.metrics.SheetsMetrics;
+
+/**
+ * <p>{@code SheetsBackend} that keeps another backend inside the Sheets API quota.
+ * 	<li>Every call, retries included, first takes a permit from a
+ * 		{@code TokenBucket} sized to the quota, so a rush of sign ins is
+ * 		spread out instead of answered with 429s.
+ * 	<li>A call that still gets a 429 (or a 5xx, the server's problem) is
+ * 		tried again after a random wait of up to {@code initialBackoff},
+ * 		doubling every retry up to {@code maxBackoff}. If the response says
+ * 		{@code Retry-After}, it waits at least that long.
+ * 	<li>{@code append()} and {@code addSheet()} aren't retried on a 5xx,
+ * 		they may have gone through before the error and can't be done twice.
+ * 	<li>Waits and retries are reported to {@code SheetsMetrics}
+ * 		({@code isThrottling()} over JMX) and retries are logged.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class ThrottlingSheetsBackend implements SheetsBackend {
+
+	private final SheetsBackend backend;
+
+	/**
+	 * {@code null} for no quota, only the retries.
+	 */
+	private final TokenBucket bucket;
+
+	private final int maxRetries;
+
+	private final long initialBackoffMillis;
+
+	private final long maxBackoffMillis;
+
+	private final SheetsMetrics metrics;
+
+	/**
+	 * Something that calls the backend, for {@code call()}.
+	 */
+	@FunctionalInterface
+	private interface BackendCall<T> {
+		T call() throws IOException;
+	}
+
+	/**
+	 * @param backend
+	 * 		the backend that does the work
+	 * @param bucket
+	 * 		the quota, {@code null} for none
+	 * @param maxRetries
+	 * @param initialBackoffMillis
+	 * @param maxBackoffMillis
+	 * @param metrics
+	 */
+	public ThrottlingSheetsBackend(SheetsBackend backend, TokenBucket bucket, int maxRetries,
+			long initialBackoffMillis, long maxBackoffMillis, SheetsMetrics metrics) {
+		this.backend = backend;
+		this.bucket = bucket;
+		this.maxRetries = maxRetries;
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public List<List<Object>> get(String spreadsheetId, String range, Dimension dimension) throws IOException {
+		return call(true, () -> backend.get(spreadsheetId, range, dimension));
+	}
+
+	@Override
+	public List<ValueRange> batchGet(String spreadsheetId, List<String> ranges, Dimension dimension)
+			throws IOException {
+		return call(true, () -> backend.batchGet(spreadsheetId, ranges, dimension));
+	}
+
+	@Override
+	public void update(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException {
+		call(true, () -> {
+			backend.update(spreadsheetId, range, values, option);
+			return null;
+		});
+	}
+
+	@Override
+	public String append(String spreadsheetId, String range, List<List<Object>> values, ValueInputOption option)
+			throws IOException {
+		return call(false, () -> backend.append(spreadsheetId, range, values, option));
+	}
+
+	@Override
+	public void batchUpdate(String spreadsheetId, List<ValueRange> data, ValueInputOption option)
+			throws IOException {
+		call(true, () -> {
+			backend.batchUpdate(spreadsheetId, data, option);
+			return null;
+		});
+	}
+
+	@Override
+	public List<SheetProperties> sheets(String spreadsheetId) throws IOException {
+		return call(true, () -> backend.sheets(spreadsheetId));
+	}
+
+	@Override
+	public void appendDimension(String spreadsheetId, int sheetId, Dimension dimension, int length)
+			throws IOException {
+		// adding rows twice is harmless, there's just more headroom
+		call(true, () -> {
+			backend.appendDimension(spreadsheetId, sheetId, dimension, length);
+			return null;
+		});
+	}
+
+	@Override
+	public SheetProperties addSheet(String spreadsheetId, String title) throws IOException {
+		return call(false, () -> backend.addSheet(spreadsheetId, title));
+	}
+
+	/**
+	 * @param idempotent
+	 * 		whether it's safe to retry after a 5xx
+	 */
+	private <T> T call(boolean idempotent, BackendCall<T> call) throws IOException {
+		for (int attempt = 0; ; attempt++) {
+			if (bucket != null) {
+				long waited = bucket.acquire();
+				if (waited > 0)
+					metrics.throttled(waited);
+			}
+
+			try {
+				return call.call();
+			} catch (HttpResponseException e) {
+				int status = e.getStatusCode();
+				boolean retry = status == 429 || (idempotent && status >= 500);
+				if (!retry || attempt >= maxRetries)
+					throw e;
+
+				long backoff = backoffMillis(attempt, e);
+				System.err.println("Sheets answered " + status + ", retrying in " + backoff + " ms ("
+						+ (attempt + 1) + " of " + maxRetries + ").");
+				metrics.retried(TimeUnit.MILLISECONDS.toNanos(backoff));
+				sleep(backoff);
+			}
+		}
+	}
+
+	/**
+	 * "Full jitter": a random wait up to the doubled backoff, so kiosks
+	 * that were throttled together don't all come back together.
+	 * @return how long to wait before the next attempt
+	 */
+	private long backoffMillis(int attempt, HttpResponseException e) {
+		long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 30));
+		long backoff = ThreadLocalRandom.current().nextLong(ceiling + 1);
+		return Math.max(backoff, retryAfterMillis(e));
+	}
+
+	/**
+	 * @return what the {@code Retry-After} header asks for, either seconds
+	 * 		or an HTTP date, 0 if there isn't one
+	 */
+	private static long retryAfterMillis(HttpResponseException e) {
+		String retryAfter = e.getHeaders() != null ? e.getHeaders().getRetryAfter() : null;
+		if (retryAfter == null)
+			return 0;
+		try {
+			return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+		} catch (NumberFormatException notSeconds) {
+			try {
+				ZonedDateTime at = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+				return Math.max(0, at.toInstant().toEpochMilli() - System.currentTimeMillis());
+			} catch (DateTimeParseException notADate) {
+				return 0;
+			}
+		}
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
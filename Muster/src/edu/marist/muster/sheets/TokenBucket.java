@@ -0,0 +1,74 @@
+package edu.marist.muster.sheets;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Hands out permits at a steady rate, for staying under a quota.
+ * 	<li>Holds up to {@code capacity} permits, so a burst after a quiet
+ * 		spell goes out at once.
+ * 	<li>Once it's empty, callers are spaced out evenly in the order they
+ * 		asked. Each one reserves the next permit and sleeps until it's due,
+ * 		outside the lock.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class TokenBucket {
+
+	private final double capacity;
+
+	private final double permitsPerNano;
+
+	/// may go negative, that's permits already promised to waiting callers
+	private double permits;
+
+	private long lastRefill;
+
+	/**
+	 * @param permits
+	 * 		how many permits...
+	 * @param per
+	 * 		...per this much time
+	 * @param unit
+	 * @param capacity
+	 * 		most permits saved up, at least 1
+	 */
+	public TokenBucket(int permits, long per, TimeUnit unit, int capacity) {
+		this.capacity = Math.max(capacity, 1);
+		this.permitsPerNano = (double) permits / unit.toNanos(per);
+		this.permits = this.capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Takes a permit, waiting for one if there are none.
+	 * @return how long it waited, in nanoseconds
+	 * @throws InterruptedIOException
+	 * 		if interrupted while waiting
+	 */
+	public long acquire() throws InterruptedIOException {
+		long wait = reserve();
+		if (wait <= 0)
+			return 0;
+		try {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		return wait;
+	}
+
+	/**
+	 * @return nanoseconds until the reserved permit is due, 0 if it's there now
+	 */
+	private synchronized long reserve() {
+		long now = System.nanoTime();
+		permits = Math.min(capacity, permits + (now - lastRefill) * permitsPerNano);
+		lastRefill = now;
+
+		permits -= 1;
+		return permits >= 0 ? 0 : (long) Math.ceil(-permits / permitsPerNano);
+	}
+}
@@ -0,0 +1,115 @@
+package edu.marist.muster.sheets;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.api.client.auth.oauth2.Credential;
+
+import edu.marist.muster.Preferences;
+import edu.marist.muster.metrics.SheetsMetrics;
+
+/**
+ * <p>Gets a new access token before the old one runs out, so no sign in
+ * waits on Google's token endpoint.
+ * 	<li>Left alone, the client library refreshes the token inside whichever
+ * 		call finds it expired: about once an hour some student's sign in
+ * 		paid for an extra round trip.
+ * 	<li>This refreshes {@code Preferences.getTokenRefreshMarginMillis()}
+ * 		before the token expires instead, on a daemon thread of its own.
+ * 	<li>A failed refresh is tried again with backoff (the same as for
+ * 		Sheets calls). The old token is good until it expires, and after
+ * 		that the library still refreshes it lazily.
+ * 	<li>How long refreshes take and how many failed is in
+ * 		{@code SheetsMetrics} under "refreshToken".
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class TokenRefresher {
+
+	private final Credential credential;
+
+	private final long marginMillis;
+
+	private final SheetsMetrics metrics = SheetsMetrics.getInstance();
+
+	private final ScheduledExecutorService scheduler;
+
+	/// the wait before the next retry, 0 when the last refresh worked
+	private long backoffMillis;
+
+	/**
+	 * @param credential
+	 * 		must have a refresh token, i.e. came from an "offline" flow
+	 * @param marginMillis
+	 * 		how long before expiry to refresh
+	 */
+	public TokenRefresher(Credential credential, long marginMillis) {
+		this.credential = credential;
+		this.marginMillis = marginMillis;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor((r) -> {
+			Thread t = new Thread(r, "oauth-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Schedules the first refresh, right away if the token has already
+	 * expired (or never had one).
+	 */
+	public void start() {
+		schedule(untilRefresh());
+	}
+
+	public void stop() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Refreshes now, on the caller's thread. The next scheduled refresh
+	 * still happens, the token may just be fresher than it needs to be.
+	 * @throws IOException
+	 * 		if Google said no, or there is no refresh token
+	 */
+	public void refresh() throws IOException {
+		metrics.time("refreshToken", () -> {
+			if (!credential.refreshToken())
+				throw new IOException("No refresh token, sign in to Google again");
+			return null;
+		});
+	}
+
+	private void refreshAndReschedule() {
+		try {
+			refresh();
+			backoffMillis = 0;
+			schedule(untilRefresh());
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+			backoffMillis = backoffMillis == 0 ? Preferences.getInitialBackoffMillis()
+					: Math.min(backoffMillis * 2, Preferences.getMaxBackoffMillis());
+			schedule(backoffMillis);
+		}
+	}
+
+	/**
+	 * @return how long until the token should be refreshed, 0 if it's
+	 * 		already due
+	 */
+	private long untilRefresh() {
+		Long expiresIn = credential.getExpiresInSeconds();
+		if (expiresIn == null || expiresIn <= 0)
+			return 0;
+		long lifetime = TimeUnit.SECONDS.toMillis(expiresIn);
+		// a token that doesn't last longer than the margin gets half its life
+		return lifetime > marginMillis ? lifetime - marginMillis : lifetime / 2;
+	}
+
+	private void schedule(long delayMillis) {
+		if (!scheduler.isShutdown())
+			scheduler.schedule(this::refreshAndReschedule, delayMillis, TimeUnit.MILLISECONDS);
+	}
+}
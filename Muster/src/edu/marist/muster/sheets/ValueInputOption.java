@@ -0,0 +1,17 @@
+package edu.marist.muster.sheets;
+
+/**
+ * Use {@code toString()} to get the string representation.
+ * 
+ * Represents the two types of value inputs for Google Sheets.
+ * 
+ *  <li>{@code RAW} puts the values verbatim into the cell.
+ *  <li>{@code USER_ENTERED} puts the values into a cell, then
+ *  	sheets might format it (like if it's a date or time).
+ * 
+ * @author Tom Magnusson
+ *
+ */
+public enum ValueInputOption {
+	RAW, USER_ENTERED;
+}
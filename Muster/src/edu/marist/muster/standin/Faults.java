@@ -0,0 +1,212 @@
+package edu.marist.muster.standin;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>What {@code SheetsStandInServer} does wrong on purpose, so a bad day
+ * at Google can be played back on a laptop.
+ * 	<li>Latency: log-normal, given as a median and a 99th percentile
+ * 		(like {@code CallMetrics} reports it), so there's a long tail. A
+ * 		p99 equal to the median is a constant latency.
+ * 	<li>429s and 500s, in Google's error format, so the client treats
+ * 		them like the real thing.
+ * 	<li>Dropped connections: the request is read, then the connection is
+ * 		closed without an answer.
+ * 	<li>Slow bodies: the answer's headers go out at once, the body at
+ * 		{@code slowBodyBytesPerSecond}.
+ *
+ * <p>Each fault is a share of requests, 0 (never) to 1 (every one), and
+ * they're drawn independently. Thread safe, and can be changed while the
+ * server is running, see {@code FaultsMXBean}.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class Faults implements FaultsMXBean {
+
+	/**
+	 * What to do with one request.
+	 */
+	public enum Fault {
+		NONE, THROTTLE, ERROR, DROP
+	}
+
+	/// the 99th percentile of the standard normal distribution
+	private static final double Z_99 = 2.326;
+
+	private volatile long medianMillis;
+
+	private volatile long p99Millis;
+
+	private volatile double throttleRate;
+
+	private volatile double errorRate;
+
+	private volatile double dropRate;
+
+	private volatile double slowBodyRate;
+
+	private volatile long slowBodyBytesPerSecond = 1024;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong injectedFaults = new AtomicLong();
+
+	/**
+	 * @return faults from the command line, e.g.
+	 * 		{@code -Dmuster.standin.medianMillis=80 -Dmuster.standin.p99Millis=900
+	 * 		-Dmuster.standin.throttleRate=0.05}, anything not set is off
+	 */
+	public static Faults fromSystemProperties() {
+		Faults faults = new Faults();
+		faults.setMedianMillis(Long.getLong("muster.standin.medianMillis", 0));
+		faults.setP99Millis(Long.getLong("muster.standin.p99Millis", faults.getMedianMillis()));
+		faults.setThrottleRate(rate("muster.standin.throttleRate"));
+		faults.setErrorRate(rate("muster.standin.errorRate"));
+		faults.setDropRate(rate("muster.standin.dropRate"));
+		faults.setSlowBodyRate(rate("muster.standin.slowBodyRate"));
+		faults.setSlowBodyBytesPerSecond(Long.getLong("muster.standin.slowBodyBytesPerSecond",
+				faults.getSlowBodyBytesPerSecond()));
+		return faults;
+	}
+
+	private static double rate(String property) {
+		return Double.parseDouble(System.getProperty(property, "0"));
+	}
+
+	/**
+	 * @return how long to hold this request before answering it
+	 */
+	public long latencyMillis() {
+		long median = medianMillis;
+		if (median <= 0)
+			return 0;
+		long p99 = Math.max(median, p99Millis);
+		double sigma = Math.log((double) p99 / median) / Z_99;
+		Random random = ThreadLocalRandom.current();
+		return Math.round(median * Math.exp(sigma * random.nextGaussian()));
+	}
+
+	/**
+	 * Draws what goes wrong with the next request, and counts it.
+	 * @return {@code NONE} most of the time, hopefully
+	 */
+	public Fault next() {
+		requests.incrementAndGet();
+		Random random = ThreadLocalRandom.current();
+		Fault fault = Fault.NONE;
+		if (random.nextDouble() < dropRate) {
+			fault = Fault.DROP;
+		} else if (random.nextDouble() < throttleRate) {
+			fault = Fault.THROTTLE;
+		} else if (random.nextDouble() < errorRate) {
+			fault = Fault.ERROR;
+		}
+		if (fault != Fault.NONE)
+			injectedFaults.incrementAndGet();
+		return fault;
+	}
+
+	/**
+	 * @return whether this answer's body should trickle out
+	 */
+	public boolean slowBody() {
+		return ThreadLocalRandom.current().nextDouble() < slowBodyRate;
+	}
+
+	@Override
+	public long getMedianMillis() {
+		return medianMillis;
+	}
+
+	@Override
+	public void setMedianMillis(long medianMillis) {
+		this.medianMillis = Math.max(0, medianMillis);
+	}
+
+	@Override
+	public long getP99Millis() {
+		return p99Millis;
+	}
+
+	@Override
+	public void setP99Millis(long p99Millis) {
+		this.p99Millis = Math.max(0, p99Millis);
+	}
+
+	@Override
+	public double getThrottleRate() {
+		return throttleRate;
+	}
+
+	@Override
+	public void setThrottleRate(double throttleRate) {
+		this.throttleRate = clamp(throttleRate);
+	}
+
+	@Override
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	@Override
+	public void setErrorRate(double errorRate) {
+		this.errorRate = clamp(errorRate);
+	}
+
+	@Override
+	public double getDropRate() {
+		return dropRate;
+	}
+
+	@Override
+	public void setDropRate(double dropRate) {
+		this.dropRate = clamp(dropRate);
+	}
+
+	@Override
+	public double getSlowBodyRate() {
+		return slowBodyRate;
+	}
+
+	@Override
+	public void setSlowBodyRate(double slowBodyRate) {
+		this.slowBodyRate = clamp(slowBodyRate);
+	}
+
+	@Override
+	public long getSlowBodyBytesPerSecond() {
+		return slowBodyBytesPerSecond;
+	}
+
+	@Override
+	public void setSlowBodyBytesPerSecond(long slowBodyBytesPerSecond) {
+		this.slowBodyBytesPerSecond = Math.max(1, slowBodyBytesPerSecond);
+	}
+
+	@Override
+	public long getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public long getInjectedFaults() {
+		return injectedFaults.get();
+	}
+
+	@Override
+	public void clear() {
+		medianMillis = 0;
+		p99Millis = 0;
+		throttleRate = 0;
+		errorRate = 0;
+		dropRate = 0;
+		slowBodyRate = 0;
+	}
+
+	private static double clamp(double rate) {
+		return Math.max(0, Math.min(1, rate));
+	}
+}
@@ -0,0 +1,75 @@
+package edu.marist.muster.standin;
+
+/**
+ * The stand-in's faults as seen (and changed) from JConsole, under
+ * {@code edu.marist.muster:type=SheetsStandIn}. Changes apply to the next
+ * request, so an outage can be started and ended while kiosks are running.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public interface FaultsMXBean {
+
+	/**
+	 * @return the median latency added to every request, 0 for none
+	 */
+	long getMedianMillis();
+
+	void setMedianMillis(long medianMillis);
+
+	/**
+	 * @return the 99th percentile latency, the same as the median for a
+	 * 		constant latency
+	 */
+	long getP99Millis();
+
+	void setP99Millis(long p99Millis);
+
+	/**
+	 * @return share of requests answered 429, 0 to 1
+	 */
+	double getThrottleRate();
+
+	void setThrottleRate(double throttleRate);
+
+	/**
+	 * @return share of requests answered 500, 0 to 1
+	 */
+	double getErrorRate();
+
+	void setErrorRate(double errorRate);
+
+	/**
+	 * @return share of requests whose connection is closed with no answer
+	 */
+	double getDropRate();
+
+	void setDropRate(double dropRate);
+
+	/**
+	 * @return share of answers whose body trickles out, see
+	 * 		{@code getSlowBodyBytesPerSecond()}
+	 */
+	double getSlowBodyRate();
+
+	void setSlowBodyRate(double slowBodyRate);
+
+	long getSlowBodyBytesPerSecond();
+
+	void setSlowBodyBytesPerSecond(long slowBodyBytesPerSecond);
+
+	/**
+	 * @return requests answered so far, faults and all
+	 */
+	long getRequests();
+
+	/**
+	 * @return requests that got a fault (a 429, a 500 or a drop)
+	 */
+	long getInjectedFaults();
+
+	/**
+	 * Turns every fault off, latency included.
+	 */
+	void clear();
+}
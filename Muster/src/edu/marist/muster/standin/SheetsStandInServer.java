@@ -0,0 +1,367 @@
+package edu.marist.muster.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.sheets.v4.model.AddSheetResponse;
+import com.google.api.services.sheets.v4.model.AppendValuesResponse;
+import com.google.api.services.sheets.v4.model.BatchGetValuesResponse;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetResponse;
+import com.google.api.services.sheets.v4.model.BatchUpdateValuesRequest;
+import com.google.api.services.sheets.v4.model.BatchUpdateValuesResponse;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.Response;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
+import com.google.api.services.sheets.v4.model.UpdateValuesResponse;
+import com.google.api.services.sheets.v4.model.ValueRange;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.marist.muster.sheets.Dimension;
+import edu.marist.muster.sheets.InMemorySheetsBackend;
+import edu.marist.muster.sheets.SheetsBackend;
+import edu.marist.muster.sheets.ValueInputOption;
+
+/**
+ * <p>Pretends to be Google Sheets over HTTP, so the kiosk can be run
+ * (and broken) without a Google account. Start a kiosk with
+ * {@code -Dmuster.sheets.rootUrl=http://localhost:8643/} and it talks to
+ * this instead, through the real Sheets client, no sign in needed.
+ *
+ * <p>The part of the v4 API Muster uses, JSON in and out like Google's:
+ * 	<li>{@code values}: get, batchGet, update, append and batchUpdate.
+ * 	<li>{@code spreadsheets}: get (the tabs) and batchUpdate (addSheet
+ * 		and appendDimension).
+ *
+ * <p>The spreadsheets themselves are a {@code SheetsBackend}, normally an
+ * {@code InMemorySheetsBackend}, so every spreadsheet id works. Every
+ * request goes through {@code Faults} first: latency, 429s, 500s, dropped
+ * connections and slow bodies, see there.
+ *
+ * <p>{@code fields} is ignored, the whole answer is always sent.
+ *
+ * @author Tom Magnusson
+ *
+ */
+public final class SheetsStandInServer {
+
+	public static final int DEFAULT_PORT = 8643;
+
+	private static final String PREFIX = "/v4/spreadsheets/";
+
+	private static final JsonFactory JSON = JacksonFactory.getDefaultInstance();
+
+	/// how often a slow body sends the next few bytes
+	private static final long SLOW_BODY_TICK_MILLIS = 100;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final SheetsBackend backend;
+
+	private final Faults faults;
+
+	/**
+	 * @param backend
+	 * 		where the spreadsheets are kept
+	 * @param faults
+	 * 		what to do wrong, may be changed while running
+	 * @param address
+	 * 		where to listen, port 0 for any free port
+	 * @param threads
+	 * 		requests handled at the same time
+	 * @throws IOException
+	 * 		if the address can't be bound
+	 */
+	public SheetsStandInServer(SheetsBackend backend, Faults faults, InetSocketAddress address, int threads)
+			throws IOException {
+		this.backend = backend;
+		this.faults = faults;
+
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(threads, (r) -> {
+			Thread t = new Thread(r, "sheets-standin-http-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext(PREFIX, this::handle);
+	}
+
+	/**
+	 * Runs a stand-in on its own, until it's killed.
+	 * @param args
+	 * 		the port, {@code DEFAULT_PORT} if left off. Faults come from
+	 * 		system properties, see {@code Faults.fromSystemProperties()}, and
+	 * 		can be changed from JConsole under
+	 * 		{@code edu.marist.muster:type=SheetsStandIn}.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 && !args[0].isEmpty() ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		Faults faults = Faults.fromSystemProperties();
+		try {
+			ManagementFactory.getPlatformMBeanServer()
+					.registerMBean(faults, new ObjectName("edu.marist.muster:type=SheetsStandIn"));
+		} catch (JMException e) {
+			// the faults still work, they just can't be changed
+			e.printStackTrace();
+		}
+
+		SheetsStandInServer server = new SheetsStandInServer(new InMemorySheetsBackend(), faults,
+				new InetSocketAddress(port), 16);
+		server.start();
+		System.out.println("Sheets stand-in at " + server.getRootUrl()
+				+ ", start Muster with -Dmuster.sheets.rootUrl=" + server.getRootUrl());
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops listening, requests being handled get a second to finish.
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the port it's listening on, handy when it was made with port 0
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return what to give {@code Sheets.Builder.setRootUrl()}
+	 */
+	public String getRootUrl() {
+		return "http://localhost:" + getPort() + "/";
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String body = read(exchange);
+		sleep(faults.latencyMillis());
+
+		switch (faults.next()) {
+		case DROP:
+			// thrown out of the handler, the server closes the connection without answering
+			throw new IOException("Dropped " + exchange.getRequestURI() + " on purpose");
+		case THROTTLE:
+			error(exchange, 429, "RESOURCE_EXHAUSTED", "Quota exceeded (injected by the stand-in).");
+			return;
+		case ERROR:
+			error(exchange, 500, "INTERNAL", "Internal error encountered (injected by the stand-in).");
+			return;
+		default:
+			break;
+		}
+
+		Object answer;
+		try {
+			answer = route(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(),
+					parseQuery(exchange.getRequestURI().getRawQuery()), body);
+		} catch (IllegalArgumentException e) {
+			error(exchange, 404, "NOT_FOUND", e.getMessage());
+			return;
+		} catch (IOException e) {
+			// what the backend turns down, like a tab that's already there, Google answers 400
+			error(exchange, 400, "INVALID_ARGUMENT", e.getMessage());
+			return;
+		}
+		respond(exchange, 200, JSON.toString(answer));
+	}
+
+	/**
+	 * "/v4/spreadsheets/{id}/values/{range}:append" and friends, see the class comment.
+	 * @return the answer, as the Sheets model class Google would send
+	 * @throws IllegalArgumentException
+	 * 		if it's not something the stand-in knows
+	 */
+	private Object route(String method, String rawPath, Map<String, List<String>> query, String body)
+			throws IOException {
+		String rest = rawPath.substring(PREFIX.length());
+		int slash = rest.indexOf('/');
+		String id = decode(slash < 0 ? rest : rest.substring(0, slash));
+		String tail = slash < 0 ? "" : rest.substring(slash + 1);
+
+		if (slash < 0 && id.endsWith(":batchUpdate") && "POST".equals(method))
+			return updateSpreadsheet(id.substring(0, id.length() - ":batchUpdate".length()),
+					JSON.fromString(body, BatchUpdateSpreadsheetRequest.class));
+		if (slash < 0 && "GET".equals(method))
+			return new Spreadsheet().setSpreadsheetId(id).setSheets(backend.sheets(id).stream()
+					.map((properties) -> new Sheet().setProperties(properties))
+					.collect(Collectors.toList()));
+
+		Dimension dimension = Dimension.valueOf(first(query, "majorDimension", "ROWS"));
+		if ("values:batchGet".equals(tail) && "GET".equals(method)) {
+			List<String> ranges = query.getOrDefault("ranges", Collections.<String>emptyList());
+			return new BatchGetValuesResponse().setSpreadsheetId(id)
+					.setValueRanges(backend.batchGet(id, ranges, dimension));
+		}
+		if ("values:batchUpdate".equals(tail) && "POST".equals(method)) {
+			BatchUpdateValuesRequest request = JSON.fromString(body, BatchUpdateValuesRequest.class);
+			backend.batchUpdate(id, request.getData(), ValueInputOption.valueOf(request.getValueInputOption()));
+			return new BatchUpdateValuesResponse().setSpreadsheetId(id);
+		}
+
+		if (!tail.startsWith("values/"))
+			throw new IllegalArgumentException("Not a Sheets call the stand-in knows: " + method + " " + rawPath);
+		String range = decode(tail.substring("values/".length()));
+		ValueInputOption option = ValueInputOption.valueOf(first(query, "valueInputOption", "RAW"));
+
+		if (range.endsWith(":append") && "POST".equals(method)) {
+			range = range.substring(0, range.length() - ":append".length());
+			String updated = backend.append(id, range, JSON.fromString(body, ValueRange.class).getValues(), option);
+			return new AppendValuesResponse().setSpreadsheetId(id)
+					.setUpdates(new UpdateValuesResponse().setSpreadsheetId(id).setUpdatedRange(updated));
+		}
+		if ("PUT".equals(method)) {
+			backend.update(id, range, JSON.fromString(body, ValueRange.class).getValues(), option);
+			return new UpdateValuesResponse().setSpreadsheetId(id).setUpdatedRange(range);
+		}
+		if ("GET".equals(method))
+			return new ValueRange().setRange(range).setMajorDimension(dimension.toString())
+					.setValues(backend.get(id, range, dimension));
+		throw new IllegalArgumentException("Not a Sheets call the stand-in knows: " + method + " " + rawPath);
+	}
+
+	private BatchUpdateSpreadsheetResponse updateSpreadsheet(String id, BatchUpdateSpreadsheetRequest request)
+			throws IOException {
+		List<Response> replies = new ArrayList<>(request.getRequests().size());
+		for (Request r : request.getRequests()) {
+			if (r.getAddSheet() != null) {
+				replies.add(new Response().setAddSheet(new AddSheetResponse()
+						.setProperties(backend.addSheet(id, r.getAddSheet().getProperties().getTitle()))));
+			} else if (r.getAppendDimension() != null) {
+				backend.appendDimension(id, r.getAppendDimension().getSheetId(),
+						Dimension.valueOf(r.getAppendDimension().getDimension()),
+						r.getAppendDimension().getLength());
+				replies.add(new Response());
+			} else {
+				throw new IllegalArgumentException("Only addSheet and appendDimension are supported: " + r);
+			}
+		}
+		return new BatchUpdateSpreadsheetResponse().setSpreadsheetId(id).setReplies(replies);
+	}
+
+	/**
+	 * Answers in Google's error format, so the client throws a
+	 * {@code GoogleJsonResponseException} with the status like it would.
+	 */
+	private void error(HttpExchange exchange, int code, String status, String message) throws IOException {
+		Map<String, Object> error = new LinkedHashMap<>();
+		error.put("code", code);
+		error.put("message", message);
+		error.put("status", status);
+		respond(exchange, code, JSON.toString(Collections.singletonMap("error", error)));
+	}
+
+	private void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			if (!faults.slowBody()) {
+				out.write(body);
+				return;
+			}
+			// a few bytes every tick, flushed so the client really does wait for them
+			int chunk = (int) Math.max(1, faults.getSlowBodyBytesPerSecond() * SLOW_BODY_TICK_MILLIS / 1000);
+			for (int offset = 0; offset < body.length; offset += chunk) {
+				out.write(body, offset, Math.min(chunk, body.length - offset));
+				out.flush();
+				sleep(SLOW_BODY_TICK_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * @return the request body, gunzipped if it came gzipped (the Google
+	 * 		client gzips what it sends)
+	 */
+	private static String read(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding")))
+			in = new GZIPInputStream(in);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, n);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * "ranges=A1%3AA&ranges=1%3A1&majorDimension=ROWS" -> {ranges: ["A1:A", "1:1"], majorDimension: ["ROWS"]}
+	 */
+	private static Map<String, List<String>> parseQuery(String rawQuery) throws IOException {
+		Map<String, List<String>> query = new HashMap<>();
+		if (rawQuery == null)
+			return query;
+		for (String pair : rawQuery.split("&")) {
+			if (pair.isEmpty())
+				continue;
+			int equals = pair.indexOf('=');
+			String key = equals < 0 ? pair : pair.substring(0, equals);
+			String value = equals < 0 ? "" : pair.substring(equals + 1);
+			query.computeIfAbsent(URLDecoder.decode(key, "UTF-8"), (k) -> new ArrayList<>())
+					.add(URLDecoder.decode(value, "UTF-8"));
+		}
+		return query;
+	}
+
+	private static String first(Map<String, List<String>> query, String key, String orElse) {
+		List<String> values = query.get(key);
+		return values == null || values.isEmpty() ? orElse : values.get(0);
+	}
+
+	/**
+	 * A path segment, where a + is a +, not a space.
+	 */
+	private static String decode(String segment) throws IOException {
+		return URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8");
+	}
+
+	private static void sleep(long millis) throws IOException {
+		if (millis <= 0)
+			return;
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
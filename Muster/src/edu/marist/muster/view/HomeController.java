@@ -1,19 +1,34 @@
 package edu.marist.muster.view;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 import edu.marist.muster.App;
+import edu.marist.muster.Emails;
 import edu.marist.muster.Preferences;
+import edu.marist.muster.aggregator.AggregatorServer;
+import edu.marist.muster.aggregator.RemoteSignInClient;
+import edu.marist.muster.journal.JournalReplayer;
+import edu.marist.muster.journal.SignInJournal;
+import edu.marist.muster.sheets.DuplicateSignIn;
+import edu.marist.muster.sheets.RosterIndex;
 import edu.marist.muster.sheets.SheetsHelper;
-import edu.marist.muster.sheets.SheetsHelperService;
+import edu.marist.muster.sheets.SignInPipeline;
+import edu.marist.muster.sheets.SignInService;
+import javafx.application.Platform;
 import javafx.animation.FadeTransition;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Side;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
@@ -69,9 +84,37 @@ public class HomeController {
 	
 	/**
 	 * Enables network requests to take place
-	 * off the main thread.
+	 * off the main thread, several sign ins at a time.
+	 * Either this kiosk's own {@code SignInPipeline}, or the aggregator's.
 	 */
-	private SheetsHelperService service;
+	private SignInService pipeline;
+	
+	/**
+	 * Fades the progress bar out once everything is signed in,
+	 * stopped if another sign in shows up in the meantime.
+	 */
+	private FadeTransition progressFade;
+
+	/// How many roster emails the type-ahead (or a "did you mean") shows
+	private static final int MAX_SUGGESTIONS = 5;
+
+	/// Letters typed before the type-ahead starts
+	private static final int MIN_PREFIX = 3;
+
+	/// An email further than this from everyone on the roster is a new student, not a typo
+	private static final int MAX_TYPOS = 2;
+
+	/**
+	 * Drops down under the email field with the roster emails that start
+	 * with what's been typed.
+	 */
+	private final ContextMenu suggestions = new ContextMenu();
+
+	/**
+	 * An email that isn't on the roster that was already questioned,
+	 * signing it in again means it really is a new student.
+	 */
+	private String questionedEmail;
 
 	/**
 	 * Called after the HomeController is all set up from FXML. Useful for
@@ -79,46 +122,18 @@ public class HomeController {
 	 */
 	@FXML
 	private void initialize() {
-		try {
-			// helps us with the sheets logic (encapsulation or something)
-			// TODO: still blocking UI thread
-			SheetsHelper sheetsHelper = new SheetsHelper();
-			
-			// the service allows us to run all the network requests off the main thread
-			service = new SheetsHelperService();
-			service.setSheetsHelper(sheetsHelper);
-		} catch (Exception e) {
-			e.printStackTrace();
-			System.exit(-1);
-			// TODO: include warning that sheets is not cooperating
+		if (Preferences.getAggregatorUrl() != null) {
+			// another kiosk does the writing, this one doesn't need Google at all
+			startRemote(Preferences.getAggregatorUrl());
+		} else {
+			startLocal();
 		}
 		
-		if(Preferences.getSheetID() == null) {
+		if(!(pipeline instanceof RemoteSignInClient) && Preferences.getSheetID() == null) {
 			// present the user with the settings to provide the url
 			onSetttingsClicked(null);
 		}
 		
-		// the service operates in callbacks, async style
-		service.setOnSucceeded((workerStateEvent) -> {
-			// the result of the Task.call() method
-			String email = (String) workerStateEvent.getSource().getValue();
-			imHereSuccess(email);
-			progressBar.setProgress(1.0);
-			
-			// fade like the success text
-			FadeTransition fade = new FadeTransition(Preferences.opacityFadeDuration(), progressBar);
-			fade.setToValue(0.0);
-			fade.play();
-		});
-		
-		service.setOnFailed((workerStateEvent) -> {
-			String email = (String) workerStateEvent.getSource().getValue();
-			imHereFailure("Something's wrong, " + email + " could not be signed in, might be Google Sheets acting up.");
-			progressBar.setProgress(0.0);
-			progressBar.setOpacity(0.0);
-		});
-		
-		
 		// hide the confirmation label and progress bar
 		imHereConfirmationLabel.setOpacity(0.0);
 		progressBar.setOpacity(0.0);
@@ -127,6 +142,88 @@ public class HomeController {
 		imHereButton.setOnMouseClicked(this::imHere);
 		settingsButton.setOnMouseClicked(this::onSetttingsClicked);
 		emailTextField.setOnKeyPressed(this::onEnterEmailTextField);
+		emailTextField.textProperty().addListener((observable, old, text) -> suggest(text));
+	}
+
+	/**
+	 * Writes sign ins to Google Sheets from this kiosk, and takes them from
+	 * other kiosks too if it's the aggregator.
+	 */
+	private void startLocal() {
+		if (Preferences.isAggregator()) {
+			// one writer for every kiosk, batch the writes
+			Preferences.setWriteBehind(true);
+		}
+		
+		// helps us with the sheets logic (encapsulation or something),
+		// authorizing and reading the sheet happen in the background so the window shows right away
+		CompletableFuture<SheetsHelper> sheetsHelper = SheetsHelper.startAsync();
+		
+		// the pipeline runs all the network requests off the main thread,
+		// sign ins made before sheets is ready wait in its queue
+		SignInPipeline local = new SignInPipeline(sheetsHelper, Preferences.getSignInWorkers(),
+				Preferences.getSignInQueueCapacity());
+		pipeline = local;
+		
+		if (Preferences.isJournaling())
+			startJournal(local, sheetsHelper);
+		
+		sheetsHelper.whenComplete((helper, error) -> {
+			if (error != null) {
+				error.printStackTrace();
+				Platform.runLater(() -> imHereFailure("Google Sheets is not available, sign ins can't be saved to the sheet."));
+			}
+		});
+		
+		if (Preferences.isAggregator()) {
+			try {
+				AggregatorServer server = new AggregatorServer(local,
+						new InetSocketAddress(Preferences.getAggregatorPort()), Preferences.getSignInWorkers());
+				server.start();
+				System.out.println("Taking sign ins from other kiosks on port " + server.getPort() + ".");
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.err.println("Could not start the aggregator, only this kiosk can sign in.");
+			}
+		}
+	}
+	
+	/**
+	 * Sends sign ins to the aggregator kiosk instead of Google Sheets.
+	 * @param url
+	 */
+	private void startRemote(String url) {
+		try {
+			pipeline = new RemoteSignInClient(url, Preferences.getSignInWorkers(),
+					Preferences.getSignInQueueCapacity());
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Aggregator url " + url + " is no good, writing to Google Sheets instead.");
+			startLocal();
+		}
+	}
+
+	/**
+	 * Opens the sign in journal and starts replaying it onto the sheet.
+	 * If the journal can't be opened sign ins go straight to the sheet,
+	 * like they did before there was a journal.
+	 * 
+	 * <p>The journal takes sign ins right away, replaying only starts
+	 * once sheets is ready.
+	 * 
+	 * @param local
+	 * @param sheetsHelper
+	 */
+	private void startJournal(SignInPipeline local, CompletableFuture<SheetsHelper> sheetsHelper) {
+		try {
+			SignInJournal journal = new SignInJournal(Preferences.journalDirectory(),
+					Preferences.journalSegmentBytes());
+			local.setJournal(journal);
+			sheetsHelper.thenAccept((helper) -> new JournalReplayer(journal, helper).start());
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Journal is not available, writing straight to the sheet.");
+		}
 	}
 
 	/**
@@ -152,12 +249,7 @@ public class HomeController {
 	 * @return validation
 	 */
 	private Validation validateEmail(String email) {
-		// should create something with "stringanylength.stringanylength1" where
-		// 1 can be any number
-		Pattern regex = Pattern.compile("^[a-zA-Z]+\\.[a-zA-Z]+[0-9]+$");
-		Matcher matcher = regex.matcher(email);
-
-		return matcher.find() ? Validation.VALID : Validation.BAD_EMAIL_FORMATTING;
+		return Emails.isValid(email) ? Validation.VALID : Validation.BAD_EMAIL_FORMATTING;
 	}
 
 	/**
@@ -170,11 +262,30 @@ public class HomeController {
 		String email = emailTextField.getText();
 		switch (validateEmail(email)) {
 		case VALID:
-			// starts the mark http requests off the UI Thread
-			service.setEmail(email);
-			service.restart();
-			progressBar.setOpacity(1.0);
-			progressBar.setProgress(0.85);
+			// pressed twice, answered right here without the sheet
+			boolean repeat = pipeline.isSignedIn(email);
+			if (repeat && Preferences.getDuplicateSignIn() == DuplicateSignIn.KEEP_FIRST) {
+				imHereSuccess(email, " is already here!");
+				emailTextField.setText("");
+				break;
+			}
+			if (!checkRoster(email))
+				break;
+			
+			// starts the mark http requests off the UI Thread,
+			// the callbacks come back on a worker so hop back onto the UI thread
+			pipeline.submit(email).whenComplete((signedIn, error) -> Platform.runLater(() -> {
+				if (error == null) {
+					imHereSuccess(signedIn, repeat ? " is here, time updated." : " is here!");
+				} else {
+					imHereFailure("Something's wrong, " + email + " could not be signed in, might be Google Sheets acting up.");
+				}
+				updateProgress();
+			}));
+			
+			// next student can start typing right away
+			emailTextField.setText("");
+			updateProgress();
 			break;
 		case BAD_EMAIL_FORMATTING:
 			imHereFailure("Something's wrong, looks like \"" + email + "\" isn't formatted correctly.");
@@ -185,6 +296,95 @@ public class HomeController {
 		}
 	}
 
+	/**
+	 * Catches a typo before it becomes a new row on the sheet: an email
+	 * that isn't on the roster but is close to one that is gets a "did you
+	 * mean" instead of being signed in. Signing in the same email again
+	 * goes through, it's a new student.
+	 * 
+	 * @param email
+	 * @return {@code true} if the email should be signed in
+	 */
+	private boolean checkRoster(String email) {
+		RosterIndex roster = pipeline.roster();
+		if (roster == null || roster.contains(email) || email.equalsIgnoreCase(questionedEmail)) {
+			questionedEmail = null;
+			return true;
+		}
+		List<String> near = roster.nearest(email, MAX_TYPOS, MAX_SUGGESTIONS);
+		if (near.isEmpty())
+			return true; // nobody like them on the roster, a new student
+		
+		questionedEmail = email;
+		imHereFailure("\"" + email + "\" isn't on the roster, did you mean " + String.join(" or ", near)
+				+ "? Press I'm Here! again to sign in as " + email + ".");
+		showSuggestions(near);
+		return false;
+	}
+	
+	/**
+	 * Type-ahead: shows the roster emails starting with what's been typed.
+	 * 
+	 * @param text
+	 */
+	private void suggest(String text) {
+		RosterIndex roster = pipeline.roster();
+		if (roster == null || text.length() < MIN_PREFIX) {
+			suggestions.hide();
+			return;
+		}
+		List<String> matches = roster.complete(text, MAX_SUGGESTIONS);
+		if (matches.size() == 1 && matches.get(0).equalsIgnoreCase(text)) {
+			suggestions.hide(); // typed all of it already
+			return;
+		}
+		showSuggestions(matches);
+	}
+	
+	/**
+	 * Shows the emails under the email field, picking one fills it in.
+	 * 
+	 * @param emails
+	 */
+	private void showSuggestions(List<String> emails) {
+		if (emails.isEmpty()) {
+			suggestions.hide();
+			return;
+		}
+		List<MenuItem> items = new ArrayList<>(emails.size());
+		for (String email : emails) {
+			MenuItem item = new MenuItem(email);
+			item.setOnAction((e) -> {
+				emailTextField.setText(email);
+				emailTextField.positionCaret(email.length());
+			});
+			items.add(item);
+		}
+		suggestions.getItems().setAll(items);
+		if (!suggestions.isShowing())
+			suggestions.show(emailTextField, Side.BOTTOM, 0, 0);
+	}
+
+	/**
+	 * Shows the progress bar while sign ins are in flight, then fills
+	 * and fades it once the last one is done.
+	 */
+	private void updateProgress() {
+		if (pipeline.inFlight() > 0) {
+			if (progressFade != null)
+				progressFade.stop();
+			progressBar.setOpacity(1.0);
+			progressBar.setProgress(0.85);
+			return;
+		}
+		progressBar.setProgress(1.0);
+		
+		// fade like the success text
+		progressFade = new FadeTransition(Preferences.opacityFadeDuration(), progressBar);
+		progressFade.setToValue(0.0);
+		progressFade.play();
+	}
+
 	private String uppercaseFirstLetter(String s) {
 		if (s.length() == 0)
 			return s;
@@ -200,8 +400,10 @@ public class HomeController {
 	 * person can enter themselves.
 	 * 
 	 * @param email
+	 * @param status
+	 * 		what follows the name, e.g. " is here!"
 	 */
-	private void imHereSuccess(String email) {
+	private void imHereSuccess(String email, String status) {
 		imHereConfirmationLabel.setTextFill(Preferences.successColor());
 
 		// Stream.of() map using uppercaseFirst String.join with " "
@@ -214,16 +416,13 @@ public class HomeController {
 		whosHere = whosHere.replaceAll("[0-9]+", ""); // remove numbers at the end, "Thomas Magnusson"
 
 		System.out.println(whosHere);
-		imHereConfirmationLabel.setText(whosHere + " is here!");
+		imHereConfirmationLabel.setText(whosHere + status);
 
 		// fade the opacity over three seconds, noice
 		imHereConfirmationLabel.setOpacity(1.0);
 		FadeTransition fade = new FadeTransition(Preferences.opacityFadeDuration(), imHereConfirmationLabel);
 		fade.setToValue(0.0);
 		fade.play();
-
-		// clear the email field
-		emailTextField.setText("");
 	}
 
 	/**